@@ -62,6 +62,10 @@ class ChatWebSocketManager @Inject constructor(
     private val _typingState = MutableSharedFlow<TypingEvent>()
     val typingState: SharedFlow<TypingEvent> = _typingState.asSharedFlow()
     
+    // 服务端补发不完整（断线期间消息过多），需要重新通过接口加载消息
+    private val _refreshRequired = MutableSharedFlow<Unit>()
+    val refreshRequired: SharedFlow<Unit> = _refreshRequired.asSharedFlow()
+    
     // 重连相关
     private var reconnectAttempts = 0
     private val maxReconnectAttempts = 10
@@ -70,6 +74,11 @@ class ChatWebSocketManager @Inject constructor(
     private var isReconnecting = false
     private var manualDisconnect = false
     
+    // 收到的最后一条消息 ID，重连时带上让服务端补发断线期间的消息
+    // 服务端会从该消息之前的一小段时间开始补发，可能收到已有的消息，按 ID 去重
+    @Volatile
+    private var lastMessageId = 0L
+    
     data class TypingEvent(
         val conversationId: Long,
         val userId: Long,
@@ -81,6 +90,14 @@ class ChatWebSocketManager @Inject constructor(
         CONNECTED, DISCONNECTED, CONNECTING, RECONNECTING, ERROR, FAILED
     }
     
+    /**
+     * 通过接口加载到消息后调用，重连时从已加载的最新消息开始补发
+     */
+    fun onMessagesLoaded(messageIds: Collection<Long>) {
+        val maxId = messageIds.maxOrNull() ?: return
+        lastMessageId = maxOf(lastMessageId, maxId)
+    }
+    
     fun connect() {
         // 防止重复连接
         if (isConnected() || isReconnecting) {
@@ -98,8 +115,9 @@ class ChatWebSocketManager @Inject constructor(
             // 从 BuildConfig 获取 API 地址，替换 http 为 ws
             val httpUrl = com.barter.app.BuildConfig.API_BASE_URL.trimEnd('/')
             val baseUrl = httpUrl.replace("http://", "ws://").replace("https://", "wss://")
+            val since = if (lastMessageId > 0) "&since=$lastMessageId" else ""
             val request = Request.Builder()
-                .url("$baseUrl/ws/chat?token=$token")
+                .url("$baseUrl/ws/chat?token=$token$since")
                 .build()
             
             webSocket = client.newWebSocket(request, object : WebSocketListener() {
@@ -135,9 +153,20 @@ class ChatWebSocketManager @Inject constructor(
                                             createdAt = messageObj.optString("createdAt")
                                         )
                                     )
+                                    lastMessageId = maxOf(lastMessageId, message.message?.id ?: 0L)
                                     scope.launch { _incomingMessages.emit(message) }
                                 }
                             }
+                            "RESUMED" -> {
+                                val resumeObj = json.optJSONObject("resume")
+                                if (resumeObj != null) {
+                                    lastMessageId = maxOf(lastMessageId, resumeObj.optLong("lastMessageId"))
+                                    if (!resumeObj.optBoolean("complete", true)) {
+                                        Log.w(TAG, "Replay incomplete, refreshing conversations")
+                                        scope.launch { _refreshRequired.emit(Unit) }
+                                    }
+                                }
+                            }
                             "TYPING" -> {
                                 val typingObj = json.optJSONObject("typing")
                                 if (typingObj != null) {
@@ -84,6 +84,15 @@ class ChatViewModel @Inject constructor(
             }
         }
         
+        // 重连补发不完整时重新加载当前对话
+        viewModelScope.launch {
+            webSocketManager.refreshRequired.collect {
+                if (conversationId != 0L) {
+                    loadConversation(conversationId)
+                }
+            }
+        }
+        
         // 监听 typing 状态
         viewModelScope.launch {
             webSocketManager.typingState.collect { event ->
@@ -181,6 +190,7 @@ class ChatViewModel @Inject constructor(
                             createdAt = msg.createdAt
                         )
                     }.sortedBy { it.createdAt ?: "" }
+                    webSocketManager.onMessagesLoaded(messages.map { it.id })
                     _uiState.value = _uiState.value.copy(
                         isLoading = false,
                         messages = messages,
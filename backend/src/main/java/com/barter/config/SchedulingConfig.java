@@ -0,0 +1,10 @@
+package com.barter.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+    // 启用定时任务（搜索索引重建等）
+}
@@ -1,8 +1,10 @@
 package com.barter.config;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.core.Ordered;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
@@ -11,9 +13,13 @@ public class WebConfig implements WebMvcConfigurer {
     @Value("${upload.path}")
     private String uploadPath;
 
-    @Override
-    public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        registry.addResourceHandler("/uploads/**")
-                .addResourceLocations("file:" + uploadPath + "/");
+    // 上传文件在安全过滤链和 MVC 分发之前直接返回
+    @Bean
+    public FilterRegistrationBean<UploadResourceFilter> uploadResourceFilter() {
+        FilterRegistrationBean<UploadResourceFilter> registration =
+                new FilterRegistrationBean<>(new UploadResourceFilter(uploadPath));
+        registration.addUrlPatterns(UploadResourceFilter.URL_PREFIX + "*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
     }
 }
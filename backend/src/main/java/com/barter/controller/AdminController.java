@@ -1,12 +1,26 @@
 package com.barter.controller;
 
 import com.barter.dto.ApiResponse;
+import com.barter.dto.ChatDto;
+import com.barter.entity.Message;
 import com.barter.entity.User;
+import com.barter.service.ChatService;
+import com.barter.service.ImageProcessingService;
 import com.barter.service.SystemConfigService;
+import com.barter.service.WalletReconciliationService;
+import com.barter.service.WalletStatementService;
+import com.barter.websocket.SessionOutboundQueues;
+import jakarta.validation.Valid;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.LocalDate;
 
 @RestController
 @RequestMapping("/api/admin")
@@ -14,6 +28,11 @@ import org.springframework.web.bind.annotation.*;
 public class AdminController {
 
     private final SystemConfigService systemConfigService;
+    private final ImageProcessingService imageProcessingService;
+    private final SessionOutboundQueues sessionOutboundQueues;
+    private final ChatService chatService;
+    private final WalletStatementService walletStatementService;
+    private final WalletReconciliationService walletReconciliationService;
 
     // 获取系统配置
     @GetMapping("/config")
@@ -48,6 +67,82 @@ public class AdminController {
         return ApiResponse.success(request.isAllow() ? "已开启用户物品可见" : "已关闭用户物品可见", null);
     }
 
+    // 为历史图片补齐缩略图
+    @PostMapping("/images/backfill-variants")
+    public ApiResponse<Void> backfillImageVariants(@AuthenticationPrincipal User user) {
+        checkAdmin(user);
+
+        boolean started = imageProcessingService.startVariantBackfill();
+        return ApiResponse.success(started ? "已开始补齐缩略图" : "补齐任务正在运行", null);
+    }
+
+    // 群发消息（不指定用户时在后台发给所有用户，进度通过 GET /chat/broadcast 查询）
+    @PostMapping("/chat/broadcast")
+    public ApiResponse<Integer> broadcast(
+            @Valid @RequestBody ChatDto.BroadcastRequest request,
+            @AuthenticationPrincipal User user) {
+        checkAdmin(user);
+
+        Message.MessageType type = request.getType() != null ? request.getType() : Message.MessageType.TEXT;
+        if (request.getUserIds() == null || request.getUserIds().isEmpty()) {
+            boolean started = chatService.startBroadcastToAll(user, request.getContent(), type);
+            return ApiResponse.success(started ? "已开始群发" : "群发任务正在运行", null);
+        }
+        int sent = chatService.broadcastToUsers(user, request.getUserIds(), request.getContent(), type);
+        return ApiResponse.success("已发送 " + sent + " 条消息", sent);
+    }
+
+    // 最近一次后台群发的进度或结果
+    @GetMapping("/chat/broadcast")
+    public ApiResponse<ChatService.BroadcastStatus> getBroadcastStatus(@AuthenticationPrincipal User user) {
+        checkAdmin(user);
+
+        return ApiResponse.success(chatService.getBroadcastStatus());
+    }
+
+    // WebSocket 发送队列统计
+    @GetMapping("/ws/stats")
+    public ApiResponse<SessionOutboundQueues.Stats> getWebSocketStats(@AuthenticationPrincipal User user) {
+        checkAdmin(user);
+
+        return ApiResponse.success(sessionOutboundQueues.stats());
+    }
+
+    // 导出钱包流水用于对账（日期包含首尾两天，不指定用户时导出所有用户）
+    @GetMapping("/wallet/transactions/export")
+    public ResponseEntity<StreamingResponseBody> exportWalletTransactions(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) Long userId,
+            @RequestParam(defaultValue = "CSV") WalletStatementService.StatementFormat format,
+            @AuthenticationPrincipal User user) {
+        checkAdmin(user);
+
+        StreamingResponseBody body = out -> walletStatementService.export(
+                userId, from.atStartOfDay(), to.plusDays(1).atStartOfDay(), format, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, format.attachment("wallet-transactions-" + from + "-" + to))
+                .contentType(format.getMediaType())
+                .body(body);
+    }
+
+    // 启动钱包对账（有未完成的对账时从检查点继续）
+    @PostMapping("/wallet/reconciliation")
+    public ApiResponse<Void> startWalletReconciliation(@AuthenticationPrincipal User user) {
+        checkAdmin(user);
+
+        boolean started = walletReconciliationService.start();
+        return ApiResponse.success(started ? "已开始钱包对账" : "对账任务正在运行", null);
+    }
+
+    // 最近一次钱包对账结果
+    @GetMapping("/wallet/reconciliation")
+    public ApiResponse<WalletReconciliationService.Report> getWalletReconciliation(@AuthenticationPrincipal User user) {
+        checkAdmin(user);
+
+        return ApiResponse.success(walletReconciliationService.getLatestReport());
+    }
+
     private void checkAdmin(User user) {
         if (user.getIsAdmin() == null || !user.getIsAdmin()) {
             throw new RuntimeException("需要管理员权限");
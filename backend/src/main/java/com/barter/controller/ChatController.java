@@ -12,6 +12,8 @@ import org.springframework.data.web.PageableDefault;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/chat")
 @RequiredArgsConstructor
@@ -26,6 +28,13 @@ public class ChatController {
         return ApiResponse.success("消息已发送", chatService.sendMessage(request, user));
     }
 
+    @PostMapping("/send/batch")
+    public ApiResponse<List<ChatDto.MessageResponse>> sendMessages(
+            @Valid @RequestBody ChatDto.BatchSendRequest request,
+            @AuthenticationPrincipal User user) {
+        return ApiResponse.success("消息已发送", chatService.sendMessages(request.getMessages(), user));
+    }
+
     @GetMapping("/conversations")
     public ApiResponse<Page<ChatDto.ConversationResponse>> getConversations(
             @AuthenticationPrincipal User user,
@@ -40,4 +49,28 @@ public class ChatController {
             @PageableDefault(size = 50) Pageable pageable) {
         return ApiResponse.success(chatService.getConversationDetail(id, user, pageable));
     }
+
+    @GetMapping("/conversations/{id}/messages")
+    public ApiResponse<ChatDto.MessageHistoryResponse> getMessages(
+            @PathVariable Long id,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "50") int limit,
+            @AuthenticationPrincipal User user) {
+        return ApiResponse.success(chatService.getMessages(id, user, before, after, limit));
+    }
+
+    @PostMapping("/conversations/{id}/read")
+    public ApiResponse<ChatDto.ReadResponse> markRead(
+            @PathVariable Long id,
+            @AuthenticationPrincipal User user) {
+        return ApiResponse.success(chatService.markRead(id, user));
+    }
+
+    @GetMapping("/presence")
+    public ApiResponse<List<ChatDto.PresenceResponse>> getPresence(
+            @RequestParam List<Long> userIds,
+            @AuthenticationPrincipal User user) {
+        return ApiResponse.success(chatService.getPresence(userIds, user));
+    }
 }
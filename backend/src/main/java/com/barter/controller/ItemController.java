@@ -2,6 +2,7 @@ package com.barter.controller;
 
 import com.barter.dto.ApiResponse;
 import com.barter.dto.ItemDto;
+import com.barter.entity.Item;
 import com.barter.entity.User;
 import com.barter.service.ItemService;
 import jakarta.validation.Valid;
@@ -40,6 +41,15 @@ public class ItemController {
         return ApiResponse.success("物品更新成功", itemService.updateItem(id, request, user));
     }
 
+    // 替换物品的全部图片
+    @PutMapping("/{id}/images")
+    public ApiResponse<ItemDto.ItemResponse> replaceImages(
+            @PathVariable Long id,
+            @RequestPart(value = "images", required = false) List<MultipartFile> images,
+            @AuthenticationPrincipal User user) {
+        return ApiResponse.success("物品图片已更新", itemService.replaceImages(id, images, user));
+    }
+
     @GetMapping("/{id}")
     public ApiResponse<ItemDto.ItemResponse> getItem(
             @PathVariable Long id,
@@ -57,9 +67,11 @@ public class ItemController {
     @GetMapping("/search")
     public ApiResponse<Page<ItemDto.ItemListResponse>> searchItems(
             @RequestParam String keyword,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) Item.ItemCondition condition,
             @PageableDefault(size = 20) Pageable pageable,
             @AuthenticationPrincipal User user) {
-        return ApiResponse.success(itemService.searchItems(keyword, pageable, user));
+        return ApiResponse.success(itemService.searchItems(keyword, category, condition, pageable, user));
     }
 
     @GetMapping("/my")
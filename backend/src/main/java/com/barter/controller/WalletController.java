@@ -9,12 +9,19 @@ import com.barter.entity.CreditRecord;
 import com.barter.repository.CreditRecordRepository;
 import com.barter.service.CreditService;
 import com.barter.service.WalletService;
+import com.barter.service.WalletStatementService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.LocalDate;
+import java.util.List;
 
 @RestController
 @RequestMapping("/api/wallet")
@@ -22,6 +29,7 @@ import org.springframework.web.bind.annotation.*;
 public class WalletController {
 
     private final WalletService walletService;
+    private final WalletStatementService statementService;
     private final CreditService creditService;
     private final CreditRecordRepository creditRecordRepository;
 
@@ -102,20 +110,87 @@ public class WalletController {
             @RequestParam(defaultValue = "20") int size) {
         Page<WalletTransaction> transactions = walletService.getTransactions(user, PageRequest.of(page, size));
 
-        Page<WalletDto.TransactionResponse> response = transactions.map(tx -> {
-            WalletDto.TransactionResponse dto = new WalletDto.TransactionResponse();
-            dto.setId(tx.getId());
-            dto.setType(tx.getType());
-            dto.setPointsChange(tx.getPointsChange());
-            dto.setBalanceChange(tx.getBalanceChange());
-            dto.setDescription(tx.getDescription());
-            dto.setCreatedAt(tx.getCreatedAt());
-            return dto;
-        });
+        Page<WalletDto.TransactionResponse> response = transactions.map(this::toTransactionResponse);
+
+        return ResponseEntity.ok(ApiResponse.success(response));
+    }
 
+    /**
+     * 按游标获取钱包流水，before 为上一页最后一条流水 ID
+     */
+    @GetMapping("/transactions/history")
+    public ResponseEntity<ApiResponse<WalletDto.TransactionHistoryResponse>> getTransactionHistory(
+            @AuthenticationPrincipal User user,
+            @RequestParam(required = false) Long before,
+            @RequestParam(defaultValue = "20") int limit) {
+        WalletService.TransactionHistory history = walletService.getTransactionHistory(user, before, limit);
+
+        WalletDto.TransactionHistoryResponse response = new WalletDto.TransactionHistoryResponse();
+        response.setTransactions(history.transactions().stream().map(this::toTransactionResponse).toList());
+        response.setHasMore(history.hasMore());
         return ResponseEntity.ok(ApiResponse.success(response));
     }
 
+    /**
+     * 导出流水（format=CSV / NDJSON），日期范围包含首尾两天，默认最近一年
+     */
+    @GetMapping("/transactions/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(
+            @AuthenticationPrincipal User user,
+            @RequestParam(defaultValue = "CSV") WalletStatementService.StatementFormat format,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        LocalDate end = to != null ? to : LocalDate.now();
+        LocalDate start = from != null ? from : end.minusYears(1);
+        Long userId = user.getId();
+
+        StreamingResponseBody body = out -> statementService.export(
+                userId, start.atStartOfDay(), end.plusDays(1).atStartOfDay(), format, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, format.attachment("wallet-" + start + "-" + end))
+                .contentType(format.getMediaType())
+                .body(body);
+    }
+
+    /**
+     * 每日余额快照，日期范围包含首尾两天，默认最近30天
+     */
+    @GetMapping("/snapshots")
+    public ResponseEntity<ApiResponse<List<WalletDto.BalanceSnapshotResponse>>> getSnapshots(
+            @AuthenticationPrincipal User user,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        LocalDate end = to != null ? to : LocalDate.now();
+        LocalDate start = from != null ? from : end.minusDays(30);
+
+        List<WalletDto.BalanceSnapshotResponse> response = statementService.getSnapshots(user.getId(), start, end).stream()
+                .map(snapshot -> {
+                    WalletDto.BalanceSnapshotResponse dto = new WalletDto.BalanceSnapshotResponse();
+                    dto.setDate(snapshot.getSnapshotDate());
+                    dto.setPoints(snapshot.getPoints());
+                    dto.setFrozenPoints(snapshot.getFrozenPoints());
+                    dto.setBalance(snapshot.getBalance());
+                    dto.setFrozenBalance(snapshot.getFrozenBalance());
+                    dto.setPointsChange(snapshot.getPointsChange());
+                    dto.setBalanceChange(snapshot.getBalanceChange());
+                    dto.setTransactionCount(snapshot.getTransactionCount());
+                    return dto;
+                })
+                .toList();
+        return ResponseEntity.ok(ApiResponse.success(response));
+    }
+
+    private WalletDto.TransactionResponse toTransactionResponse(WalletTransaction tx) {
+        WalletDto.TransactionResponse dto = new WalletDto.TransactionResponse();
+        dto.setId(tx.getId());
+        dto.setType(tx.getType());
+        dto.setPointsChange(tx.getPointsChange());
+        dto.setBalanceChange(tx.getBalanceChange());
+        dto.setDescription(tx.getDescription());
+        dto.setCreatedAt(tx.getCreatedAt());
+        return dto;
+    }
+
     /**
      * 获取信用分信息
      */
@@ -1,8 +1,11 @@
 package com.barter.dto;
 
 import com.barter.entity.Message;
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
 import lombok.Data;
 import java.time.LocalDateTime;
 import java.util.List;
@@ -20,6 +23,26 @@ public class ChatDto {
         private Message.MessageType type = Message.MessageType.TEXT;
     }
 
+    @Data
+    public static class BatchSendRequest {
+        @NotEmpty(message = "消息不能为空")
+        @Size(max = 500, message = "一次最多发送500条消息")
+        private List<@Valid SendMessageRequest> messages;
+    }
+
+    /**
+     * 群发消息，userIds 为空时发给所有用户
+     */
+    @Data
+    public static class BroadcastRequest {
+        private List<Long> userIds;
+
+        @NotBlank(message = "消息内容不能为空")
+        private String content;
+
+        private Message.MessageType type = Message.MessageType.TEXT;
+    }
+
     @Data
     public static class MessageResponse {
         private Long id;
@@ -39,6 +62,22 @@ public class ChatDto {
         private MessageResponse lastMessage;
         private Integer unreadCount;
         private LocalDateTime lastMessageAt;
+        private Boolean otherUserOnline;
+        private LocalDateTime otherUserLastSeenAt;
+    }
+
+    @Data
+    public static class ReadResponse {
+        private Long conversationId;
+        private Long lastReadMessageId;
+        private Integer unreadCount;
+    }
+
+    @Data
+    public static class PresenceResponse {
+        private Long userId;
+        private Boolean online;
+        private LocalDateTime lastSeenAt;
     }
 
     @Data
@@ -46,5 +85,16 @@ public class ChatDto {
         private Long id;
         private ItemDto.UserBrief otherUser;
         private List<MessageResponse> messages;
+        private Boolean hasMore;
+    }
+
+    /**
+     * 按游标查询的聊天记录
+     * before 查询（或不带游标）从新到旧，after 查询从旧到新；hasMore 表示同方向还有更多
+     */
+    @Data
+    public static class MessageHistoryResponse {
+        private List<MessageResponse> messages;
+        private Boolean hasMore;
     }
 }
@@ -1,10 +1,12 @@
 package com.barter.dto;
 
 import com.barter.entity.Item;
+import com.barter.entity.ItemImage;
 import jakarta.validation.constraints.NotBlank;
 import lombok.Data;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 public class ItemDto {
 
@@ -40,6 +42,8 @@ public class ItemDto {
         private String wantedItems;
         private UserBrief owner;
         private List<String> images;
+        private List<Map<String, String>> imageVariants;  // 与 images 一一对应，尺寸 -> 地址，如 {"200": ..., "600": ..., "1920": ...}
+        private ItemImage.ImageStatus imageStatus;  // 图片处理状态，PROCESSING 时可轮询或等待 ITEM_IMAGES_READY 推送
         private Integer viewCount;
         private Integer wishCount;
         private Boolean isWished;
@@ -79,7 +83,10 @@ public class ItemDto {
         private Item.ItemCondition condition;
         private Item.ItemStatus status;
         private String coverImage;
+        private Map<String, String> coverImageVariants;  // 列表页优先使用小尺寸缩略图
         private UserBrief owner;
+        private Integer wishCount;
+        private Boolean isWished;
         private LocalDateTime createdAt;
     }
 
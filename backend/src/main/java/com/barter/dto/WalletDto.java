@@ -6,7 +6,9 @@ import com.barter.service.CreditService;
 import lombok.Data;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.List;
 
 public class WalletDto {
 
@@ -34,6 +36,24 @@ public class WalletDto {
         private LocalDateTime createdAt;
     }
 
+    @Data
+    public static class TransactionHistoryResponse {
+        private List<TransactionResponse> transactions;
+        private Boolean hasMore;
+    }
+
+    @Data
+    public static class BalanceSnapshotResponse {
+        private LocalDate date;
+        private Integer points;             // 当天结束时积分余额
+        private Integer frozenPoints;
+        private BigDecimal balance;         // 当天结束时现金余额
+        private BigDecimal frozenBalance;
+        private Integer pointsChange;       // 当天积分变化合计
+        private BigDecimal balanceChange;   // 当天现金变化合计
+        private Integer transactionCount;   // 当天流水笔数
+    }
+
     @Data
     public static class CreditResponse {
         private Integer creditScore;
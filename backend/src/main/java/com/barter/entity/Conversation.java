@@ -11,7 +11,14 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table(name = "conversations")
+// 两人之间只有一个对话：按规范化的用户对 (较小 ID, 较大 ID) 唯一
+@Table(name = "conversations", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_conversations_user_pair", columnNames = {"user_low_id", "user_high_id"})
+}, indexes = {
+        // 按用户查对话（会话列表、断线重连补发）
+        @Index(name = "idx_conversations_user1", columnList = "user1_id"),
+        @Index(name = "idx_conversations_user2", columnList = "user2_id")
+})
 public class Conversation {
 
     @Id
@@ -26,6 +33,13 @@ public class Conversation {
     @JoinColumn(name = "user2_id", nullable = false)
     private User user2;
 
+    // 规范化的用户对，由 ConversationRepository.insertIfAbsent 写入
+    @Column(updatable = false)
+    private Long userLowId;
+
+    @Column(updatable = false)
+    private Long userHighId;
+
     // 关联的交换请求（可选）
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "trade_request_id")
@@ -34,6 +48,34 @@ public class Conversation {
     @OneToMany(mappedBy = "conversation", cascade = CascadeType.ALL)
     private List<Message> messages;
 
+    // 以下为最后一条消息快照和双方的未读数，只通过 ConversationRepository.recordMessage/markRead 原子更新
+    @Column(updatable = false)
     private LocalDateTime lastMessageAt;
+
+    @Column(updatable = false)
+    private Long lastMessageId;
+
+    @Column(updatable = false)
+    private Long lastMessageSenderId;
+
+    @Column(updatable = false, length = 200)
+    private String lastMessagePreview;
+
+    @Enumerated(EnumType.STRING)
+    @Column(updatable = false)
+    private Message.MessageType lastMessageType;
+
+    @Column(updatable = false)
+    private Integer user1UnreadCount = 0;
+
+    @Column(updatable = false)
+    private Integer user2UnreadCount = 0;
+
+    // 双方已读到的最后一条消息 ID
+    @Column(updatable = false)
+    private Long user1LastReadId;
+
+    @Column(updatable = false)
+    private Long user2LastReadId;
     private LocalDateTime createdAt = LocalDateTime.now();
 }
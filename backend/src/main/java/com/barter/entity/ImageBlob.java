@@ -0,0 +1,37 @@
+package com.barter.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 按内容哈希存储的图片文件及其引用计数
+ * 引用来自 ItemImage.imageUrl 和 User.avatar，计数为 0 且超过宽限期的文件会被清理
+ */
+@Data
+@Entity
+@Table(name = "image_blobs")
+public class ImageBlob {
+
+    // 相对 upload.path 的存储键：物品图片为哈希（各尺寸文件共用），头像为 avatars/哈希.扩展名
+    @Id
+    @Column(length = 128)
+    private String storageKey;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private BlobKind kind;
+
+    // 只通过原子更新维护
+    @Column(nullable = false, updatable = false)
+    private Integer refCount = 0;
+
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    private LocalDateTime updatedAt = LocalDateTime.now();
+
+    public enum BlobKind {
+        ITEM_IMAGE, // 物品图片（含各尺寸缩略图）
+        AVATAR      // 用户头像
+    }
+}
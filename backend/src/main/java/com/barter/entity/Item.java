@@ -41,10 +41,17 @@ public class Item {
     private User owner;
 
     @OneToMany(mappedBy = "item", cascade = CascadeType.ALL)
+    @OrderBy("sortOrder ASC, id ASC")
     private List<ItemImage> images;
 
+    // 浏览量只通过 ItemViewCounter 批量累加写回，保存实体时不覆盖
+    @Column(updatable = false)
     private Integer viewCount = 0;
 
+    // 收藏数（冗余字段，只通过 ItemRepository.incrementWishCount 原子更新，保存实体时不覆盖）
+    @Column(updatable = false)
+    private Integer wishCount = 0;
+
     private LocalDateTime createdAt = LocalDateTime.now();
     private LocalDateTime updatedAt = LocalDateTime.now();
     
@@ -4,6 +4,7 @@ import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
+import java.time.LocalDateTime;
 
 @Data
 @NoArgsConstructor
@@ -21,7 +22,24 @@ public class ItemImage {
 
     private Integer sortOrder = 0;
 
+    // 处理状态，历史数据为 null 视为已就绪
+    @Enumerated(EnumType.STRING)
+    private ImageStatus status = ImageStatus.READY;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "item_id", nullable = false)
     private Item item;
+
+    // 处理中的图片被节点认领（上传或恢复）的时间，超时仍未处理完视为该节点已宕机，由其他节点重新认领
+    private LocalDateTime processingClaimedAt;
+
+    // 本次上传的暂存文件名（不入库），提交后据此处理和删除自己的暂存文件
+    @Transient
+    private String stagingName;
+
+    public enum ImageStatus {
+        PROCESSING, // 处理中
+        READY,      // 已就绪
+        FAILED      // 处理失败
+    }
 }
@@ -70,6 +70,13 @@ public class User {
     private LocalDateTime createdAt = LocalDateTime.now();
     private LocalDateTime updatedAt = LocalDateTime.now();
 
+    // 在线状态和最后在线时间，只通过 PresenceService 的原子更新维护
+    @Column(updatable = false)
+    private Boolean online = false;
+
+    @Column(updatable = false)
+    private LocalDateTime lastSeenAt;
+
     @OneToMany(mappedBy = "owner", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     @com.fasterxml.jackson.annotation.JsonIgnore
     private List<Item> items;
@@ -0,0 +1,29 @@
+package com.barter.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 用户在各节点上的在线记录，有连接的节点每个心跳周期刷新一次
+ * 用户在本节点的最后一个连接关闭时，据此判断其他节点是否还有该用户的连接
+ */
+@Data
+@Entity
+@Table(name = "user_node_presence", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_user_node_presence_user_node", columnNames = {"user_id", "node_id"})
+})
+public class UserNodePresence {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "node_id", nullable = false, length = 36)
+    private String nodeId;
+
+    @Column(nullable = false)
+    private LocalDateTime lastSeenAt;
+}
@@ -18,27 +18,30 @@ public class UserWallet {
     @JoinColumn(name = "user_id", nullable = false, unique = true)
     private User user;
 
+    // 以下余额和签到字段只通过 UserWalletRepository 的原子更新修改，保存实体时不覆盖
+
     // 积分余额
-    @Column(nullable = false)
+    @Column(nullable = false, updatable = false)
     private Integer points = 0;
 
     // 现金余额（元）
-    @Column(nullable = false, precision = 10, scale = 2)
+    @Column(nullable = false, updatable = false, precision = 10, scale = 2)
     private BigDecimal balance = BigDecimal.ZERO;
 
     // 冻结积分（保证金占用）
-    @Column(nullable = false)
+    @Column(nullable = false, updatable = false)
     private Integer frozenPoints = 0;
 
     // 冻结现金（保证金占用）
-    @Column(nullable = false, precision = 10, scale = 2)
+    @Column(nullable = false, updatable = false, precision = 10, scale = 2)
     private BigDecimal frozenBalance = BigDecimal.ZERO;
     
     // 连续签到天数
-    @Column(nullable = false)
+    @Column(nullable = false, updatable = false)
     private Integer signInStreak = 0;
     
     // 上次签到日期
+    @Column(updatable = false)
     private LocalDate lastSignInDate;
 
     private LocalDateTime createdAt = LocalDateTime.now();
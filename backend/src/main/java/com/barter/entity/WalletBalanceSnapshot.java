@@ -0,0 +1,56 @@
+package com.barter.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 每日钱包余额快照，由 WalletStatementService 每天生成，漏掉的日期在下次生成时补齐
+ * 只为当天有变动的钱包（以及还没有快照的钱包）生成，某天没有快照时取之前最近一天的快照
+ */
+@Data
+@Entity
+@Table(name = "wallet_balance_snapshots", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_wallet_snapshots_user_date", columnNames = {"user_id", "snapshot_date"})
+})
+public class WalletBalanceSnapshot {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(nullable = false)
+    private LocalDate snapshotDate;
+
+    // 当天结束时的钱包余额（由当前余额减去之后的流水得出）
+    @Column(nullable = false)
+    private Integer points;
+
+    @Column(nullable = false)
+    private Integer frozenPoints;
+
+    @Column(nullable = false, precision = 10, scale = 2)
+    private BigDecimal balance;
+
+    @Column(nullable = false, precision = 10, scale = 2)
+    private BigDecimal frozenBalance;
+
+    // 当天流水汇总
+    @Column(nullable = false)
+    private Integer pointsChange;
+
+    @Column(nullable = false, precision = 12, scale = 2)
+    private BigDecimal balanceChange;
+
+    @Column(nullable = false)
+    private Integer transactionCount;
+
+    // 当天最后一条流水 ID，没有流水时为空
+    private Long lastTransactionId;
+
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,48 @@
+package com.barter.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 对账差异：钱包余额与流水累计不一致
+ * expected 为按流水累计的应有值，actual 为钱包中的值（没有钱包时为 0）
+ */
+@Data
+@Entity
+@Table(name = "wallet_reconciliation_drifts", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_wallet_drifts_run_user", columnNames = {"run_id", "user_id"})
+})
+public class WalletReconciliationDrift {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "run_id", nullable = false)
+    private Long runId;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    private Long expectedPoints;
+    private Long actualPoints;
+
+    private Long expectedFrozenPoints;
+    private Long actualFrozenPoints;
+
+    @Column(precision = 14, scale = 2)
+    private BigDecimal expectedBalance;
+    @Column(precision = 14, scale = 2)
+    private BigDecimal actualBalance;
+
+    @Column(precision = 14, scale = 2)
+    private BigDecimal expectedFrozenBalance;
+    @Column(precision = 14, scale = 2)
+    private BigDecimal actualFrozenBalance;
+
+    // 是否存在钱包
+    private Boolean walletExists;
+
+    private LocalDateTime createdAt = LocalDateTime.now();
+}
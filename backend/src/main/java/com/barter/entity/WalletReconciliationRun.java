@@ -0,0 +1,50 @@
+package com.barter.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 钱包对账任务，按用户 ID 分段核对，lastUserId 为检查点（该 ID 及之前的钱包已核对），中断后从检查点继续
+ */
+@Data
+@Entity
+@Table(name = "wallet_reconciliation_runs")
+public class WalletReconciliationRun {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private RunStatus status;
+
+    // 开始时的最大用户 ID，之后新建的钱包留给下一次对账
+    @Column(nullable = false)
+    private Long maxUserId;
+
+    @Column(nullable = false)
+    private Long lastUserId = 0L;
+
+    @Column(nullable = false)
+    private Long walletsChecked = 0L;
+
+    @Column(nullable = false)
+    private Long transactionsScanned = 0L;
+
+    @Column(nullable = false)
+    private Integer driftCount = 0;
+
+    @Column(length = 500)
+    private String error;
+
+    private LocalDateTime startedAt = LocalDateTime.now();
+
+    private LocalDateTime finishedAt;
+
+    public enum RunStatus {
+        RUNNING,    // 进行中（节点宕机时会停留在此状态，下次启动对账时继续）
+        FAILED,     // 出错中断，下次启动对账时从检查点继续
+        COMPLETED   // 已完成
+    }
+}
@@ -7,7 +7,11 @@ import java.time.LocalDateTime;
 
 @Data
 @Entity
-@Table(name = "wallet_transactions")
+// 用户流水按 id 游标分页；每日快照和对账导出按 created_at 范围读取
+@Table(name = "wallet_transactions", indexes = {
+        @Index(name = "idx_wallet_transactions_user_id", columnList = "user_id, id"),
+        @Index(name = "idx_wallet_transactions_created", columnList = "created_at")
+})
 public class WalletTransaction {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
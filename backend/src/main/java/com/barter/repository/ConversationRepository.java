@@ -5,19 +5,136 @@ import com.barter.entity.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface ConversationRepository extends JpaRepository<Conversation, Long> {
 
-    @Query("SELECT c FROM Conversation c WHERE " +
-           "(c.user1 = :user1 AND c.user2 = :user2) OR " +
-           "(c.user1 = :user2 AND c.user2 = :user1)")
-    Optional<Conversation> findByUsers(@Param("user1") User user1, @Param("user2") User user2);
+    // 命名参数：id, messageId, senderId, content, type, at（批量发送时也用 NamedParameterJdbcTemplate 执行）
+    String RECORD_MESSAGE_SQL = "UPDATE conversations SET " +
+            "last_message_at = CASE WHEN last_message_at IS NULL OR last_message_at < :at THEN :at ELSE last_message_at END, " +
+            "last_message_id = CASE WHEN last_message_id IS NULL OR last_message_id < :messageId THEN :messageId ELSE last_message_id END, " +
+            "last_message_sender_id = CASE WHEN last_message_id IS NULL OR last_message_id < :messageId THEN :senderId ELSE last_message_sender_id END, " +
+            "last_message_preview = CASE WHEN last_message_id IS NULL OR last_message_id < :messageId THEN LEFT(:content, 200) ELSE last_message_preview END, " +
+            "last_message_type = CASE WHEN last_message_id IS NULL OR last_message_id < :messageId THEN :type ELSE last_message_type END, " +
+            "user1_unread_count = COALESCE(user1_unread_count, 0) + " +
+            "CASE WHEN user1_id <> :senderId AND :messageId > COALESCE(user1_last_read_id, 0) THEN 1 ELSE 0 END, " +
+            "user2_unread_count = COALESCE(user2_unread_count, 0) + " +
+            "CASE WHEN user2_id <> :senderId AND :messageId > COALESCE(user2_last_read_id, 0) THEN 1 ELSE 0 END " +
+            "WHERE id = :id";
 
-    @Query("SELECT c FROM Conversation c WHERE c.user1 = :user OR c.user2 = :user ORDER BY c.lastMessageAt DESC")
+    @Query("SELECT c.id FROM Conversation c WHERE c.userLowId = :lowId AND c.userHighId = :highId")
+    Optional<Long> findIdByUserPair(@Param("lowId") Long lowId, @Param("highId") Long highId);
+
+    // 用户与多个用户之间的对话：[对话 ID, 较小用户 ID, 较大用户 ID]
+    @Query("SELECT c.id, c.userLowId, c.userHighId FROM Conversation c " +
+           "WHERE (c.userLowId = :userId AND c.userHighId IN :otherIds) " +
+           "OR (c.userHighId = :userId AND c.userLowId IN :otherIds)")
+    List<Object[]> findIdsByUserPairs(@Param("userId") Long userId, @Param("otherIds") Collection<Long> otherIds);
+
+    // 还没有补齐用户对的历史对话：[对话 ID, 对方用户 ID]，按 ID 升序（重复对话以最早的为准）
+    // 补齐完成前或滚动发布期间旧节点仍会创建这种对话，按用户对查不到时用它兜底
+    @Query("SELECT c.id, CASE WHEN c.user1.id = :userId THEN c.user2.id ELSE c.user1.id END FROM Conversation c " +
+           "WHERE c.userLowId IS NULL AND ((c.user1.id = :userId AND c.user2.id IN :otherIds) " +
+           "OR (c.user2.id = :userId AND c.user1.id IN :otherIds)) ORDER BY c.id")
+    List<Object[]> findLegacyIdsByUsers(@Param("userId") Long userId, @Param("otherIds") Collection<Long> otherIds);
+
+    /**
+     * 创建对话，同一用户对已存在时不插入并返回空（并发创建时只有一个成功）
+     */
+    @Transactional
+    @Query(value = "INSERT INTO conversations (user1_id, user2_id, user_low_id, user_high_id, " +
+                   "user1_unread_count, user2_unread_count, created_at, last_message_at) " +
+                   "VALUES (:user1Id, :user2Id, LEAST(:user1Id, :user2Id), GREATEST(:user1Id, :user2Id), 0, 0, :now, :now) " +
+                   "ON CONFLICT (user_low_id, user_high_id) DO NOTHING RETURNING id", nativeQuery = true)
+    Optional<Long> insertIfAbsent(@Param("user1Id") Long user1Id,
+                                  @Param("user2Id") Long user2Id,
+                                  @Param("now") LocalDateTime now);
+
+    /**
+     * 为历史对话补齐用户对；同一用户对有多个历史对话时只补最早的一个
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE conversations c SET " +
+                   "user_low_id = LEAST(c.user1_id, c.user2_id), user_high_id = GREATEST(c.user1_id, c.user2_id) " +
+                   "WHERE c.user_low_id IS NULL AND NOT EXISTS (" +
+                   "  SELECT 1 FROM conversations d WHERE (d.id < c.id OR d.user_low_id IS NOT NULL) " +
+                   "  AND LEAST(d.user1_id, d.user2_id) = LEAST(c.user1_id, c.user2_id) " +
+                   "  AND GREATEST(d.user1_id, d.user2_id) = GREATEST(c.user1_id, c.user2_id))", nativeQuery = true)
+    int backfillUserPairs();
+
+    @Query(value = "SELECT c FROM Conversation c JOIN FETCH c.user1 JOIN FETCH c.user2 " +
+                   "WHERE c.user1 = :user OR c.user2 = :user ORDER BY c.lastMessageAt DESC",
+           countQuery = "SELECT COUNT(c) FROM Conversation c WHERE c.user1 = :user OR c.user2 = :user")
     Page<Conversation> findByUser(@Param("user") User user, Pageable pageable);
+
+    // 用户参与的所有对话 ID
+    @Query("SELECT c.id FROM Conversation c WHERE c.user1.id = :userId OR c.user2.id = :userId")
+    List<Long> findIdsByUserId(@Param("userId") Long userId);
+
+    // 最近聊过天的对方用户 ID
+    @Query("SELECT CASE WHEN c.user1.id = :userId THEN c.user2.id ELSE c.user1.id END FROM Conversation c " +
+           "WHERE c.user1.id = :userId OR c.user2.id = :userId ORDER BY c.lastMessageAt DESC")
+    List<Long> findPartnerIds(@Param("userId") Long userId, Pageable pageable);
+
+    // ids 中与 userId 有过对话的用户 ID
+    @Query("SELECT CASE WHEN c.user1.id = :userId THEN c.user2.id ELSE c.user1.id END FROM Conversation c " +
+           "WHERE (c.user1.id = :userId AND c.user2.id IN :ids) OR (c.user2.id = :userId AND c.user1.id IN :ids)")
+    List<Long> findPartnerIdsIn(@Param("userId") Long userId, @Param("ids") Collection<Long> ids);
+
+    /**
+     * 记录新消息：更新最后消息快照（只向后推进，乱序执行也不会回退），
+     * 接收方未读数加一（该消息已被标记为已读时不加）
+     */
+    @Transactional
+    @Modifying
+    @Query(value = RECORD_MESSAGE_SQL, nativeQuery = true)
+    int recordMessage(@Param("id") Long id,
+                      @Param("messageId") Long messageId,
+                      @Param("senderId") Long senderId,
+                      @Param("content") String content,
+                      @Param("type") String type,
+                      @Param("at") LocalDateTime at);
+
+    /**
+     * 用户已读到 upToMessageId：清零该用户的未读数
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE conversations SET " +
+                   "user1_unread_count = CASE WHEN user1_id = :userId THEN 0 ELSE user1_unread_count END, " +
+                   "user1_last_read_id = CASE WHEN user1_id = :userId THEN GREATEST(COALESCE(user1_last_read_id, 0), :upTo) ELSE user1_last_read_id END, " +
+                   "user2_unread_count = CASE WHEN user2_id = :userId THEN 0 ELSE user2_unread_count END, " +
+                   "user2_last_read_id = CASE WHEN user2_id = :userId THEN GREATEST(COALESCE(user2_last_read_id, 0), :upTo) ELSE user2_last_read_id END " +
+                   "WHERE id = :id", nativeQuery = true)
+    int markRead(@Param("id") Long id, @Param("userId") Long userId, @Param("upTo") Long upToMessageId);
+
+    /**
+     * 为还没有快照的历史对话补齐最后消息快照
+     * 旧版本从未维护过已读状态，历史消息视为已读
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE conversations c SET " +
+                   "last_message_at = COALESCE(c.last_message_at, m.created_at), " +
+                   "last_message_id = m.id, " +
+                   "last_message_sender_id = m.sender_id, " +
+                   "last_message_preview = LEFT(m.content, 200), " +
+                   "last_message_type = m.type, " +
+                   "user1_unread_count = 0, user2_unread_count = 0, " +
+                   "user1_last_read_id = m.id, user2_last_read_id = m.id " +
+                   "FROM (SELECT DISTINCT ON (conversation_id) id, conversation_id, sender_id, content, type, created_at " +
+                   "      FROM messages WHERE conversation_id IN (SELECT id FROM conversations WHERE last_message_id IS NULL) " +
+                   "      ORDER BY conversation_id, id DESC) m " +
+                   "WHERE c.id = m.conversation_id AND c.last_message_id IS NULL", nativeQuery = true)
+    int backfillLastMessages();
 }
@@ -0,0 +1,35 @@
+package com.barter.repository;
+
+import com.barter.entity.ImageBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface ImageBlobRepository extends JpaRepository<ImageBlob, String> {
+
+    // 引用计数 +1，不存在则创建（行锁保证与清理任务互斥）
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO image_blobs (storage_key, kind, ref_count, created_at, updated_at) " +
+                   "VALUES (:key, :kind, 1, now(), now()) " +
+                   "ON CONFLICT (storage_key) DO UPDATE SET ref_count = image_blobs.ref_count + 1, updated_at = now()",
+           nativeQuery = true)
+    int acquire(@Param("key") String storageKey, @Param("kind") String kind);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE ImageBlob b SET b.refCount = b.refCount - 1, b.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE b.storageKey = :key AND b.refCount > 0")
+    int release(@Param("key") String storageKey);
+
+    // 锁定待清理的文件，跳过正在被引用的行
+    @Query(value = "SELECT * FROM image_blobs WHERE ref_count <= 0 AND updated_at < :before " +
+                   "LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<ImageBlob> lockUnreferenced(@Param("before") LocalDateTime before, @Param("limit") int limit);
+}
@@ -0,0 +1,45 @@
+package com.barter.repository;
+
+import com.barter.entity.ItemImage;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ItemImageRepository extends JpaRepository<ItemImage, Long> {
+
+    @Query("SELECT img FROM ItemImage img JOIN FETCH img.item i JOIN FETCH i.owner WHERE img.status = :status")
+    List<ItemImage> findWithItemByStatus(@Param("status") ItemImage.ImageStatus status);
+
+    @Query("SELECT img FROM ItemImage img JOIN FETCH img.item i JOIN FETCH i.owner WHERE img.id IN :ids")
+    List<ItemImage> findWithItemByIdIn(@Param("ids") Collection<Long> ids);
+
+    // 认领超时未处理完的图片（认领时间早于 claimedBefore 或没有认领时间的历史数据），返回认领到的 ID
+    // SKIP LOCKED 加上更新认领时间，多个节点同时恢复时每张图片只被一个节点认领
+    @Transactional
+    @Query(value = "UPDATE item_images SET processing_claimed_at = :now WHERE id IN (" +
+                   "SELECT id FROM item_images WHERE status = 'PROCESSING' " +
+                   "AND (processing_claimed_at IS NULL OR processing_claimed_at < :claimedBefore) " +
+                   "ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED) RETURNING id", nativeQuery = true)
+    List<Long> claimStale(@Param("claimedBefore") LocalDateTime claimedBefore,
+                          @Param("now") LocalDateTime now,
+                          @Param("limit") int limit);
+
+    // 按 ID 顺序分批读取，用于补齐缩略图
+    @Query("SELECT img FROM ItemImage img WHERE img.id > :afterId ORDER BY img.id")
+    List<ItemImage> findBatchAfterId(@Param("afterId") Long afterId, Pageable pageable);
+
+    boolean existsByItemIdAndStatus(Long itemId, ItemImage.ImageStatus status);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE ItemImage img SET img.status = :status WHERE img.id = :id")
+    int updateStatus(@Param("id") Long id, @Param("status") ItemImage.ImageStatus status);
+}
@@ -4,27 +4,48 @@ import com.barter.entity.Item;
 import com.barter.entity.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface ItemRepository extends JpaRepository<Item, Long> {
 
+    // 列表查询一并取出 owner，图片由 hibernate.default_batch_fetch_size 批量加载
+    @EntityGraph(attributePaths = "owner")
     Page<Item> findByStatus(Item.ItemStatus status, Pageable pageable);
 
+    @EntityGraph(attributePaths = "owner")
     Page<Item> findByOwner(User owner, Pageable pageable);
 
     Page<Item> findByCategory(String category, Pageable pageable);
 
-    @Query("SELECT i FROM Item i WHERE i.status = :status AND " +
-           "(LOWER(i.title) LIKE LOWER(CONCAT('%', :keyword, '%')) OR " +
-           "LOWER(i.description) LIKE LOWER(CONCAT('%', :keyword, '%')))")
-    Page<Item> searchByKeyword(@Param("keyword") String keyword,
-                               @Param("status") Item.ItemStatus status,
-                               Pageable pageable);
+    // 按 ID 顺序分批读取，用于重建搜索索引
+    @Query("SELECT i FROM Item i WHERE i.id > :afterId ORDER BY i.id")
+    List<Item> findBatchAfterId(@Param("afterId") Long afterId, Pageable pageable);
 
+    @EntityGraph(attributePaths = "owner")
     List<Item> findByOwnerAndStatus(User owner, Item.ItemStatus status);
+
+    @EntityGraph(attributePaths = "owner")
+    List<Item> findByIdIn(Collection<Long> ids);
+
+    @Modifying
+    @Query("UPDATE Item i SET i.wishCount = COALESCE(i.wishCount, 0) + :delta WHERE i.id = :id")
+    int incrementWishCount(@Param("id") Long id, @Param("delta") int delta);
+
+    @Query("SELECT COALESCE(i.wishCount, 0) FROM Item i WHERE i.id = :id")
+    Integer findWishCountById(@Param("id") Long id);
+
+    // 补齐新增 wish_count 列之前的历史数据
+    @Modifying
+    @Query(value = "UPDATE items i SET wish_count = " +
+                   "(SELECT COUNT(*) FROM item_wishes w WHERE w.item_id = i.id) " +
+                   "WHERE i.wish_count IS NULL", nativeQuery = true)
+    int backfillWishCounts();
 }
@@ -5,10 +5,15 @@ import com.barter.entity.ItemWish;
 import com.barter.entity.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.Set;
 
 @Repository
 public interface ItemWishRepository extends JpaRepository<ItemWish, Long> {
@@ -16,10 +21,20 @@ public interface ItemWishRepository extends JpaRepository<ItemWish, Long> {
     
     boolean existsByUserAndItem(User user, Item item);
     
-    void deleteByUserAndItem(User user, Item item);
-    
+    @EntityGraph(attributePaths = {"item", "item.owner"})
     Page<ItemWish> findByUserOrderByCreatedAtDesc(User user, Pageable pageable);
     
-    @Query("SELECT COUNT(w) FROM ItemWish w WHERE w.item = :item")
-    Integer countByItem(Item item);
+    // 一次取出用户在给定物品中已收藏的物品 ID
+    @Query("SELECT w.item.id FROM ItemWish w WHERE w.user = :user AND w.item.id IN :itemIds")
+    Set<Long> findWishedItemIds(@Param("user") User user, @Param("itemIds") Collection<Long> itemIds);
+    
+    @Modifying
+    @Query("DELETE FROM ItemWish w WHERE w.user.id = :userId AND w.item.id = :itemId")
+    int deleteByUserIdAndItemId(@Param("userId") Long userId, @Param("itemId") Long itemId);
+    
+    // 并发重复收藏时只有一条插入成功
+    @Modifying
+    @Query(value = "INSERT INTO item_wishes (user_id, item_id, created_at) VALUES (:userId, :itemId, now()) " +
+                   "ON CONFLICT (user_id, item_id) DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(@Param("userId") Long userId, @Param("itemId") Long itemId);
 }
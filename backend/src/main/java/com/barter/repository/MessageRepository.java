@@ -1,13 +1,79 @@
 package com.barter.repository;
 
 import com.barter.entity.Message;
-import com.barter.entity.Conversation;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
-    Page<Message> findByConversationOrderByCreatedAtDesc(Conversation conversation, Pageable pageable);
+
+    // 以下分页查询都返回 List，不执行 COUNT
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender WHERE m.conversation.id = :conversationId " +
+           "ORDER BY m.createdAt DESC, m.id DESC")
+    List<Message> findLatest(@Param("conversationId") Long conversationId, Pageable pageable);
+
+    // 旧客户端的页码分页：偏移量按 page * size 计算，多取一条用于判断是否还有更多
+    // 发送者只会是对话双方，同一持久化上下文中最多各加载一次，不需要 JOIN FETCH
+    @Query(value = "SELECT * FROM messages WHERE conversation_id = :conversationId " +
+                   "ORDER BY created_at DESC, id DESC LIMIT :limit OFFSET :offset", nativeQuery = true)
+    List<Message> findPage(@Param("conversationId") Long conversationId,
+                           @Param("offset") long offset,
+                           @Param("limit") int limit);
+
+    // 游标之前（更早）的消息，从新到旧
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender WHERE m.conversation.id = :conversationId " +
+           "AND (m.createdAt < :createdAt OR (m.createdAt = :createdAt AND m.id < :id)) " +
+           "ORDER BY m.createdAt DESC, m.id DESC")
+    List<Message> findBefore(@Param("conversationId") Long conversationId,
+                             @Param("createdAt") LocalDateTime createdAt,
+                             @Param("id") Long id,
+                             Pageable pageable);
+
+    // 游标之后（更新）的消息，从旧到新，用于断线重连后补齐
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender WHERE m.conversation.id = :conversationId " +
+           "AND (m.createdAt > :createdAt OR (m.createdAt = :createdAt AND m.id > :id)) " +
+           "ORDER BY m.createdAt ASC, m.id ASC")
+    List<Message> findAfter(@Param("conversationId") Long conversationId,
+                            @Param("createdAt") LocalDateTime createdAt,
+                            @Param("id") Long id,
+                            Pageable pageable);
+
+    // 指定对话中 ID 大于 afterId 或创建时间不早于 from 的消息，按 ID 升序，用于断线重连补发
+    // 自增 ID 按插入分配、按提交可见，ID 较小的消息可能晚于 afterId 提交，所以还要按时间回看一段
+    // 按对话 ID 过滤，两个条件都在 (conversation_id, created_at, id) 索引内按对话查找，不扫描全局的新消息
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender WHERE m.conversation.id IN :conversationIds " +
+           "AND (m.id > :afterId OR m.createdAt >= :from) ORDER BY m.id")
+    List<Message> findInConversationsSince(@Param("conversationIds") Collection<Long> conversationIds,
+                                           @Param("afterId") Long afterId,
+                                           @Param("from") LocalDateTime from,
+                                           Pageable pageable);
+
+    @Query("SELECT m.createdAt FROM Message m WHERE m.id = :id")
+    Optional<LocalDateTime> findCreatedAtById(@Param("id") Long id);
+
+    // 游标消息的时间，消息不属于该对话时为空
+    @Query("SELECT m.createdAt FROM Message m WHERE m.id = :id AND m.conversation.id = :conversationId")
+    Optional<LocalDateTime> findCreatedAt(@Param("conversationId") Long conversationId, @Param("id") Long id);
+
+    @Query("SELECT MAX(m.id) FROM Message m WHERE m.conversation.id = :conversationId")
+    Long findMaxIdByConversationId(@Param("conversationId") Long conversationId);
+
+    // 把对方发来的、不晚于 upToMessageId 的消息标记为已读
+    @Transactional
+    @Modifying
+    @Query("UPDATE Message m SET m.isRead = true WHERE m.conversation.id = :conversationId " +
+           "AND m.sender.id <> :readerId AND m.isRead = false AND m.id <= :upTo")
+    int markRead(@Param("conversationId") Long conversationId,
+                 @Param("readerId") Long readerId,
+                 @Param("upTo") Long upToMessageId);
 }
@@ -0,0 +1,47 @@
+package com.barter.repository;
+
+import com.barter.entity.UserNodePresence;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+@Repository
+public interface UserNodePresenceRepository extends JpaRepository<UserNodePresence, Long> {
+
+    // 记录或刷新用户在该节点上在线
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO user_node_presence (user_id, node_id, last_seen_at) " +
+                   "SELECT id, :nodeId, :now FROM users WHERE id IN (:userIds) " +
+                   "ON CONFLICT (user_id, node_id) DO UPDATE SET last_seen_at = EXCLUDED.last_seen_at", nativeQuery = true)
+    int touch(@Param("userIds") Collection<Long> userIds, @Param("nodeId") String nodeId, @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM UserNodePresence p WHERE p.userId = :userId AND p.nodeId = :nodeId")
+    int remove(@Param("userId") Long userId, @Param("nodeId") String nodeId);
+
+    // 其他节点上是否还有该用户的连接（freshAfter 之后刷新过）
+    @Query("SELECT COUNT(p) > 0 FROM UserNodePresence p " +
+           "WHERE p.userId = :userId AND p.nodeId <> :nodeId AND p.lastSeenAt > :freshAfter")
+    boolean existsOnOtherNode(@Param("userId") Long userId, @Param("nodeId") String nodeId,
+                              @Param("freshAfter") LocalDateTime freshAfter);
+
+    // 清除过期记录（节点宕机后遗留的），其他节点也没有新记录的用户标记为离线，最后在线时间取其最后一次刷新
+    // 数据修改 CTE 中主查询看到的是删除前的快照，NOT EXISTS 只按刷新时间判断
+    @Transactional
+    @Modifying
+    @Query(value = "WITH stale AS (DELETE FROM user_node_presence WHERE last_seen_at < :before RETURNING user_id, last_seen_at) " +
+                   "UPDATE users u SET online = false, last_seen_at = s.last_seen_at " +
+                   "FROM (SELECT user_id, MAX(last_seen_at) AS last_seen_at FROM stale GROUP BY user_id) s " +
+                   "WHERE u.id = s.user_id AND NOT EXISTS (" +
+                   "  SELECT 1 FROM user_node_presence p WHERE p.user_id = s.user_id AND p.last_seen_at >= :before)",
+           nativeQuery = true)
+    int deleteStale(@Param("before") LocalDateTime before);
+}
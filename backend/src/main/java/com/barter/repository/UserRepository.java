@@ -1,8 +1,15 @@
 package com.barter.repository;
 
 import com.barter.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -13,4 +20,21 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Boolean existsByUsername(String username);
     Boolean existsByEmail(String email);
     List<User> findByIsAdminTrue();
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.online = :online, u.lastSeenAt = :seenAt WHERE u.id IN :ids")
+    int updatePresence(@Param("ids") Collection<Long> ids, @Param("online") boolean online,
+                       @Param("seenAt") LocalDateTime seenAt);
+
+    @Query("SELECT u.id FROM User u WHERE u.id > :afterId ORDER BY u.id")
+    List<Long> findIdsAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    @Query("SELECT u.id FROM User u WHERE u.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    // [id, 各节点在线记录中最近的刷新时间（没有记录时为 null）, 上线/下线时记录的 lastSeenAt]
+    @Query("SELECT u.id, MAX(p.lastSeenAt), u.lastSeenAt FROM User u LEFT JOIN UserNodePresence p ON p.userId = u.id " +
+           "WHERE u.id IN :ids GROUP BY u.id, u.lastSeenAt")
+    List<Object[]> findPresenceByIdIn(@Param("ids") Collection<Long> ids);
 }
@@ -1,12 +1,104 @@
 package com.barter.repository;
 
 import com.barter.entity.UserWallet;
-import com.barter.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
+/**
+ * 余额只通过以下原子条件更新修改，不做读-改-写，并发操作同一钱包不会丢失更新
+ * 更新语句都返回更新后的 [points, frozen_points, balance, frozen_balance]，条件不满足时不返回行
+ */
 @Repository
 public interface UserWalletRepository extends JpaRepository<UserWallet, Long> {
-    Optional<UserWallet> findByUser(User user);
+    Optional<UserWallet> findByUserId(Long userId);
+
+    // 创建空钱包，已存在时不插入也不返回行（user_id 唯一，并发首次使用不会建出两个钱包）
+    @Transactional
+    @Query(value = "INSERT INTO user_wallets (user_id, points, balance, frozen_points, frozen_balance, sign_in_streak, created_at, updated_at) " +
+                   "VALUES (:userId, 0, 0, 0, 0, 0, :now, :now) " +
+                   "ON CONFLICT (user_id) DO NOTHING RETURNING *", nativeQuery = true)
+    Optional<UserWallet> insertIfAbsent(@Param("userId") Long userId, @Param("now") LocalDateTime now);
+
+    // 冻结保证金，可用余额（余额 - 冻结）不足时不更新
+    @Transactional
+    @Query(value = "UPDATE user_wallets SET frozen_points = frozen_points + :points, " +
+                   "frozen_balance = frozen_balance + :cash, updated_at = :now " +
+                   "WHERE user_id = :userId AND points - frozen_points >= :points AND balance - frozen_balance >= :cash " +
+                   "RETURNING points, frozen_points, balance, frozen_balance", nativeQuery = true)
+    List<Object[]> freeze(@Param("userId") Long userId,
+                          @Param("points") int points,
+                          @Param("cash") BigDecimal cash,
+                          @Param("now") LocalDateTime now);
+
+    // 解冻保证金，冻结额不会减到 0 以下
+    @Transactional
+    @Query(value = "UPDATE user_wallets SET frozen_points = GREATEST(frozen_points - :points, 0), " +
+                   "frozen_balance = GREATEST(frozen_balance - :cash, 0), updated_at = :now " +
+                   "WHERE user_id = :userId " +
+                   "RETURNING points, frozen_points, balance, frozen_balance", nativeQuery = true)
+    List<Object[]> unfreeze(@Param("userId") Long userId,
+                            @Param("points") int points,
+                            @Param("cash") BigDecimal cash,
+                            @Param("now") LocalDateTime now);
+
+    // 扣除已冻结的保证金（余额和冻结额同时减少）
+    @Transactional
+    @Query(value = "UPDATE user_wallets SET points = GREATEST(points - :points, 0), " +
+                   "frozen_points = GREATEST(frozen_points - :points, 0), " +
+                   "balance = GREATEST(balance - :cash, 0), " +
+                   "frozen_balance = GREATEST(frozen_balance - :cash, 0), updated_at = :now " +
+                   "WHERE user_id = :userId " +
+                   "RETURNING points, frozen_points, balance, frozen_balance", nativeQuery = true)
+    List<Object[]> deductFrozen(@Param("userId") Long userId,
+                                @Param("points") int points,
+                                @Param("cash") BigDecimal cash,
+                                @Param("now") LocalDateTime now);
+
+    // 增加积分和现金
+    @Transactional
+    @Query(value = "UPDATE user_wallets SET points = points + :points, balance = balance + :cash, updated_at = :now " +
+                   "WHERE user_id = :userId " +
+                   "RETURNING points, frozen_points, balance, frozen_balance", nativeQuery = true)
+    List<Object[]> credit(@Param("userId") Long userId,
+                          @Param("points") int points,
+                          @Param("cash") BigDecimal cash,
+                          @Param("now") LocalDateTime now);
+
+    // 按用户 ID 顺序锁定已有的钱包，返回锁定到的用户 ID
+    // 批量更新前先按固定顺序加锁（UPDATE ... WHERE IN 不保证加锁顺序），并发批次之间不会死锁
+    @Transactional
+    @Query(value = "SELECT user_id FROM user_wallets WHERE user_id IN (:userIds) ORDER BY user_id FOR UPDATE", nativeQuery = true)
+    List<Long> lockAll(@Param("userIds") Collection<Long> userIds);
+
+    // 批量创建空钱包，已存在的跳过；按用户 ID 顺序插入，并发批次在唯一索引上的等待顺序一致
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO user_wallets (user_id, points, balance, frozen_points, frozen_balance, sign_in_streak, created_at, updated_at) " +
+                   "SELECT id, 0, 0, 0, 0, 0, :now, :now FROM users WHERE id IN (:userIds) ORDER BY id " +
+                   "ON CONFLICT (user_id) DO NOTHING", nativeQuery = true)
+    int insertAllIfAbsent(@Param("userIds") Collection<Long> userIds, @Param("now") LocalDateTime now);
+
+    // 批量签到，今天已签到的用户不更新；昨天签过则连签加一，否则从 1 开始，获得积分等于连签天数
+    // 返回更新到的 [user_id, points, frozen_points, balance, frozen_balance, sign_in_streak]
+    @Transactional
+    @Query(value = "UPDATE user_wallets SET " +
+                   "points = points + CASE WHEN last_sign_in_date = :yesterday THEN sign_in_streak + 1 ELSE 1 END, " +
+                   "sign_in_streak = CASE WHEN last_sign_in_date = :yesterday THEN sign_in_streak + 1 ELSE 1 END, " +
+                   "last_sign_in_date = :today, updated_at = :now " +
+                   "WHERE user_id IN (:userIds) AND (last_sign_in_date IS NULL OR last_sign_in_date <> :today) " +
+                   "RETURNING user_id, points, frozen_points, balance, frozen_balance, sign_in_streak", nativeQuery = true)
+    List<Object[]> signInAll(@Param("userIds") Collection<Long> userIds,
+                             @Param("today") LocalDate today,
+                             @Param("yesterday") LocalDate yesterday,
+                             @Param("now") LocalDateTime now);
 }
@@ -0,0 +1,63 @@
+package com.barter.repository;
+
+import com.barter.entity.WalletBalanceSnapshot;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface WalletBalanceSnapshotRepository extends JpaRepository<WalletBalanceSnapshot, Long> {
+
+    List<WalletBalanceSnapshot> findByUserIdAndSnapshotDateBetweenOrderBySnapshotDateAsc(Long userId, LocalDate from, LocalDate to);
+
+    // 为 [fromUserId, toUserId] 范围内的钱包生成 date 当天的快照：当天有流水或在此之前还没有快照的钱包（当天结束前创建的）
+    // 当天结束时的余额 = 当前余额 - 当天结束后的流水变化，与读取当前余额在同一条语句中，之后可以补生成任意一天
+    // 流水按类型还原余额（与对账一致）：冻结/解冻只改变冻结额，没收同时减少余额和冻结额
+    // 已生成过的跳过，重复执行（多节点同时执行）不会重复写入
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO wallet_balance_snapshots (user_id, snapshot_date, points, frozen_points, balance, frozen_balance, " +
+                   "points_change, balance_change, transaction_count, last_transaction_id, created_at) " +
+                   "SELECT w.user_id, :date, w.points - COALESCE(a.points, 0), w.frozen_points - COALESCE(a.frozen_points, 0), " +
+                   "w.balance - COALESCE(a.balance, 0), w.frozen_balance - COALESCE(a.frozen_balance, 0), " +
+                   "COALESCE(t.points_change, 0), COALESCE(t.balance_change, 0), COALESCE(t.transaction_count, 0), t.last_transaction_id, :now " +
+                   "FROM user_wallets w LEFT JOIN (" +
+                   "  SELECT user_id, SUM(points_change) AS points_change, SUM(balance_change) AS balance_change, " +
+                   "  COUNT(*) AS transaction_count, MAX(id) AS last_transaction_id FROM wallet_transactions " +
+                   "  WHERE created_at >= :from AND created_at < :to AND user_id BETWEEN :fromUserId AND :toUserId GROUP BY user_id" +
+                   ") t ON t.user_id = w.user_id LEFT JOIN (" +
+                   "  SELECT user_id, " +
+                   "  SUM(CASE WHEN type IN ('DEPOSIT_FREEZE', 'DEPOSIT_UNFREEZE') THEN 0 ELSE COALESCE(points_change, 0) END) AS points, " +
+                   "  SUM(CASE WHEN type IN ('DEPOSIT_FREEZE', 'DEPOSIT_UNFREEZE') THEN -COALESCE(points_change, 0) " +
+                   "      WHEN type = 'DEPOSIT_FORFEIT' THEN COALESCE(points_change, 0) ELSE 0 END) AS frozen_points, " +
+                   "  SUM(CASE WHEN type IN ('DEPOSIT_FREEZE', 'DEPOSIT_UNFREEZE') THEN 0 ELSE COALESCE(balance_change, 0) END) AS balance, " +
+                   "  SUM(CASE WHEN type IN ('DEPOSIT_FREEZE', 'DEPOSIT_UNFREEZE') THEN -COALESCE(balance_change, 0) " +
+                   "      WHEN type = 'DEPOSIT_FORFEIT' THEN COALESCE(balance_change, 0) ELSE 0 END) AS frozen_balance " +
+                   "  FROM wallet_transactions WHERE created_at >= :to AND user_id BETWEEN :fromUserId AND :toUserId GROUP BY user_id" +
+                   ") a ON a.user_id = w.user_id " +
+                   "WHERE w.user_id BETWEEN :fromUserId AND :toUserId AND w.created_at < :to " +
+                   "AND (t.user_id IS NOT NULL " +
+                   "OR NOT EXISTS (SELECT 1 FROM wallet_balance_snapshots s WHERE s.user_id = w.user_id AND s.snapshot_date < :date)) " +
+                   "ON CONFLICT (user_id, snapshot_date) DO NOTHING", nativeQuery = true)
+    int snapshot(@Param("date") LocalDate date,
+                 @Param("from") LocalDateTime from,
+                 @Param("to") LocalDateTime to,
+                 @Param("fromUserId") Long fromUserId,
+                 @Param("toUserId") Long toUserId,
+                 @Param("now") LocalDateTime now);
+
+    // 最近一次生成快照的日期
+    @Query("SELECT MAX(s.snapshotDate) FROM WalletBalanceSnapshot s")
+    Optional<LocalDate> findLastSnapshotDate();
+
+    @Query(value = "SELECT COALESCE(MAX(user_id), 0) FROM user_wallets", nativeQuery = true)
+    long findMaxWalletUserId();
+}
@@ -0,0 +1,14 @@
+package com.barter.repository;
+
+import com.barter.entity.WalletReconciliationDrift;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface WalletReconciliationDriftRepository extends JpaRepository<WalletReconciliationDrift, Long> {
+
+    List<WalletReconciliationDrift> findByRunIdOrderByUserIdAsc(Long runId, Pageable pageable);
+}
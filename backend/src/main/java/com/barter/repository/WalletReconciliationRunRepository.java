@@ -0,0 +1,16 @@
+package com.barter.repository;
+
+import com.barter.entity.WalletReconciliationRun;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Optional;
+
+@Repository
+public interface WalletReconciliationRunRepository extends JpaRepository<WalletReconciliationRun, Long> {
+
+    Optional<WalletReconciliationRun> findFirstByStatusInOrderByIdDesc(Collection<WalletReconciliationRun.RunStatus> statuses);
+
+    Optional<WalletReconciliationRun> findFirstByOrderByIdDesc();
+}
@@ -5,9 +5,20 @@ import com.barter.entity.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface WalletTransactionRepository extends JpaRepository<WalletTransaction, Long> {
     Page<WalletTransaction> findByUserOrderByCreatedAtDesc(User user, Pageable pageable);
+
+    // 按 id 游标分页，从新到旧，不执行 COUNT
+    @Query("SELECT t FROM WalletTransaction t WHERE t.user.id = :userId ORDER BY t.id DESC")
+    List<WalletTransaction> findLatest(@Param("userId") Long userId, Pageable pageable);
+
+    @Query("SELECT t FROM WalletTransaction t WHERE t.user.id = :userId AND t.id < :before ORDER BY t.id DESC")
+    List<WalletTransaction> findBefore(@Param("userId") Long userId, @Param("before") Long before, Pageable pageable);
 }
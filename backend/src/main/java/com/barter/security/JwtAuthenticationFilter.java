@@ -1,7 +1,6 @@
 package com.barter.security;
 
 import com.barter.entity.User;
-import com.barter.repository.UserRepository;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -26,7 +25,7 @@ import org.springframework.security.core.authority.SimpleGrantedAuthority;
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtTokenProvider tokenProvider;
-    private final UserRepository userRepository;
+    private final UserPrincipalCache userPrincipalCache;
     private final ObjectMapper objectMapper;
 
     @Override
@@ -43,10 +42,12 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         try {
             String jwt = getJwtFromRequest(request);
 
-            if (StringUtils.hasText(jwt) && tokenProvider.validateToken(jwt)) {
-                Long userId = tokenProvider.getUserIdFromToken(jwt);
-                Long tokenVersion = tokenProvider.getTokenVersionFromToken(jwt);
-                User user = userRepository.findById(userId).orElse(null);
+            JwtTokenProvider.VerifiedToken verified = StringUtils.hasText(jwt) ? tokenProvider.verify(jwt) : null;
+
+            if (verified != null) {
+                Long userId = verified.userId();
+                Long tokenVersion = verified.tokenVersion();
+                User user = userPrincipalCache.get(userId);
 
                 if (user != null) {
                     // 检查 tokenVersion 是否匹配（单设备登录）
@@ -2,11 +2,17 @@ package com.barter.security;
 
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 public class JwtTokenProvider {
@@ -17,8 +23,22 @@ public class JwtTokenProvider {
     @Value("${jwt.expiration}")
     private long jwtExpiration;
 
-    private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(jwtSecret.getBytes(StandardCharsets.UTF_8));
+    @Value("${jwt.cache.max-size:10000}")
+    private int cacheMaxSize;
+
+    // 签名密钥和解析器只构建一次（JwtParser 线程安全）
+    private SecretKey signingKey;
+    private JwtParser jwtParser;
+
+    // 已验证 token 缓存：token 哈希 -> 验证结果，到 token 的 exp 自动失效
+    private final Map<String, VerifiedToken> verifiedTokens = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        signingKey = Keys.hmacShaKeyFor(jwtSecret.getBytes(StandardCharsets.UTF_8));
+        jwtParser = Jwts.parser()
+                .verifyWith(signingKey)
+                .build();
     }
 
     public String generateToken(Long userId, String username, Long tokenVersion) {
@@ -31,37 +51,81 @@ public class JwtTokenProvider {
                 .claim("tokenVersion", tokenVersion)
                 .issuedAt(now)
                 .expiration(expiryDate)
-                .signWith(getSigningKey())
+                .signWith(signingKey)
                 .compact();
     }
 
+    /**
+     * 验证并解析 token，一次完成签名校验和取值
+     * @return 验证通过的 token 信息，无效或已过期返回 null
+     */
+    public VerifiedToken verify(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+
+        String key = hash(token);
+        long now = System.currentTimeMillis();
+        VerifiedToken cached = verifiedTokens.get(key);
+        if (cached != null) {
+            if (cached.expiresAt() > now) {
+                return cached;
+            }
+            verifiedTokens.remove(key);
+            return null;
+        }
+
+        try {
+            Claims claims = jwtParser.parseSignedClaims(token).getPayload();
+            VerifiedToken verified = new VerifiedToken(
+                    Long.parseLong(claims.getSubject()),
+                    claims.get("tokenVersion", Long.class),
+                    claims.getExpiration() != null ? claims.getExpiration().getTime() : 0L);
+            if (verified.expiresAt() > now) {
+                cache(key, verified, now);
+            }
+            return verified;
+        } catch (JwtException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     public Long getUserIdFromToken(String token) {
-        Claims claims = Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
-        return Long.parseLong(claims.getSubject());
+        VerifiedToken verified = verify(token);
+        return verified != null ? verified.userId() : null;
     }
 
     public Long getTokenVersionFromToken(String token) {
-        Claims claims = Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
-        return claims.get("tokenVersion", Long.class);
+        VerifiedToken verified = verify(token);
+        return verified != null ? verified.tokenVersion() : null;
     }
 
     public boolean validateToken(String token) {
+        return verify(token) != null;
+    }
+
+    private void cache(String key, VerifiedToken verified, long now) {
+        if (verifiedTokens.size() >= cacheMaxSize) {
+            // 先清理过期的，仍然满了就整体清空，避免无界增长
+            verifiedTokens.values().removeIf(v -> v.expiresAt() <= now);
+            if (verifiedTokens.size() >= cacheMaxSize) {
+                verifiedTokens.clear();
+            }
+        }
+        verifiedTokens.put(key, verified);
+    }
+
+    private String hash(String token) {
         try {
-            Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
-                .parseSignedClaims(token);
-            return true;
-        } catch (JwtException | IllegalArgumentException e) {
-            return false;
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
+
+    /**
+     * 验证通过的 token 信息
+     */
+    public record VerifiedToken(Long userId, Long tokenVersion, long expiresAt) {}
 }
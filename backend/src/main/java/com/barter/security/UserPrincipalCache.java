@@ -0,0 +1,101 @@
+package com.barter.security;
+
+import com.barter.entity.User;
+import com.barter.repository.UserRepository;
+import com.barter.websocket.ChatBroadcastBus;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 已认证用户缓存，避免每个请求都查询 users 表
+ * 缓存的是用户快照，每次取出都复制一份新的 User，请求内修改不会影响缓存
+ * 快照只包含用户表的字段，关联（items、referrer）为 null：懒加载集合和代理属于加载它们的会话，不能跨请求共用
+ * 修改用户的地方需要调用 evict，事务提交后会再清除一次，避免并发请求读到旧数据；清除同时通知其他节点
+ * 缓存的快照可能已经过期，修改用户时应重新从数据库加载后再保存，不要直接保存认证得到的 User
+ */
+@Component
+@RequiredArgsConstructor
+public class UserPrincipalCache {
+
+    private static final String[] ASSOCIATIONS = {"items", "referrer"};
+
+    private final UserRepository userRepository;
+    private final ChatBroadcastBus broadcastBus;
+
+    @Value("${auth.principal-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Value("${auth.principal-cache.max-size:10000}")
+    private int maxSize;
+
+    private final Map<Long, Entry> snapshots = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        broadcastBus.subscribeUserEvicted(snapshots::remove);
+    }
+
+    /**
+     * 获取用户（优先读缓存），用户不存在返回 null
+     */
+    public User get(Long userId) {
+        long now = System.currentTimeMillis();
+        Entry entry = snapshots.get(userId);
+        if (entry != null && entry.expiresAt() > now) {
+            return copyOf(entry.snapshot());
+        }
+
+        User user = userRepository.findById(userId).orElse(null);
+        if (user == null) {
+            snapshots.remove(userId);
+            return null;
+        }
+
+        if (snapshots.size() >= maxSize) {
+            snapshots.values().removeIf(e -> e.expiresAt() <= now);
+            if (snapshots.size() >= maxSize) {
+                snapshots.clear();
+            }
+        }
+        User snapshot = copyOf(user);
+        snapshots.put(userId, new Entry(snapshot, now + ttlSeconds * 1000));
+        return copyOf(snapshot);
+    }
+
+    /**
+     * 清除用户缓存，在事务中调用时提交后再清除一次
+     * 其他节点的通知随事务提交送达（NOTIFY 是事务性的）
+     */
+    public void evict(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        snapshots.remove(userId);
+        broadcastBus.publishUserEvicted(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    snapshots.remove(userId);
+                }
+            });
+        }
+    }
+
+    // 只复制标量字段
+    private User copyOf(User user) {
+        User copy = new User();
+        BeanUtils.copyProperties(user, copy, ASSOCIATIONS);
+        return copy;
+    }
+
+    private record Entry(User snapshot, long expiresAt) {}
+}
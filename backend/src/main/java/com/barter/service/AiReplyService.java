@@ -13,7 +13,6 @@ import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
 @Slf4j
@@ -72,9 +71,9 @@ public class AiReplyService {
             
             aiMessage = messageRepository.save(aiMessage);
             
-            // 更新对话的最后消息时间
-            conversation.setLastMessageAt(LocalDateTime.now());
-            conversationRepository.save(conversation);
+            // 更新对话的最后消息快照和用户未读数
+            conversationRepository.recordMessage(conversationId, aiMessage.getId(), aiUserId,
+                    aiReply, Message.MessageType.TEXT.name(), aiMessage.getCreatedAt());
             
             // 通过 WebSocket 推送 AI 回复给用户（会自动清除 typing 状态）
             WebSocketMessage wsMessage = WebSocketMessage.builder()
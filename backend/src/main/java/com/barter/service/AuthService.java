@@ -6,6 +6,7 @@ import com.barter.entity.User;
 import com.barter.repository.LoginRecordRepository;
 import com.barter.repository.UserRepository;
 import com.barter.security.JwtTokenProvider;
+import com.barter.security.UserPrincipalCache;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
@@ -21,6 +22,7 @@ public class AuthService {
     private final JwtTokenProvider tokenProvider;
     private final EmailService emailService;
     private final WalletService walletService;
+    private final UserPrincipalCache userPrincipalCache;
 
     // 推荐奖励积分
     private static final int REFERRAL_REWARD_POINTS = 50;
@@ -136,6 +138,7 @@ public class AuthService {
         // 递增 tokenVersion，使旧 token 失效
         user.setTokenVersion(user.getTokenVersion() == null ? 1L : user.getTokenVersion() + 1);
         userRepository.save(user);
+        userPrincipalCache.evict(user.getId());
 
         // 记录成功的登录
         saveLoginRecord(user, ipAddress, userAgent, true, null);
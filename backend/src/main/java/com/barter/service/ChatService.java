@@ -9,19 +9,71 @@ import com.barter.repository.MessageRepository;
 import com.barter.repository.UserRepository;
 import com.barter.websocket.ChatWebSocketHandler;
 import com.barter.websocket.WebSocketMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.socket.WebSocketSession;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
+/**
+ * 聊天
+ * 发送消息的事务只写入消息（新对话时插入对话），提交后再推送 WebSocket、触发 AI 回复，
+ * 并由后台线程原子更新对话的最后消息快照和未读数，缩短事务和行锁的持有时间
+ * 会话列表直接读取对话上的快照，不再逐个查询最后一条消息
+ * WebSocket 重连带 since 参数时补发遗漏的消息（见 replay）
+ */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class ChatService {
 
+    // 游标查询每次最多返回的消息数
+    private static final int MAX_HISTORY_LIMIT = 200;
+    // 群发时每个事务处理的用户数
+    private static final int BROADCAST_BATCH_SIZE = 500;
+    // 提交后每个推送任务处理的消息数
+    private static final int FAN_OUT_SLICE_SIZE = 100;
+    // 一次最多查询在线状态的用户数
+    private static final int MAX_PRESENCE_USERS = 200;
+
+    private static final String INSERT_MESSAGE_SQL = "INSERT INTO messages (conversation_id, sender_id, content, type, is_read, created_at) " +
+            "VALUES (:conversationId, :senderId, :content, :type, false, :createdAt)";
+
     private final ConversationRepository conversationRepository;
     private final MessageRepository messageRepository;
     private final UserRepository userRepository;
@@ -30,35 +82,80 @@ public class ChatService {
     private final AiService aiService;
     private final AiReplyService aiReplyService;
     private final ChatWebSocketHandler webSocketHandler;
+    private final PresenceService presenceService;
+    private final ConversationPairResolver conversationPairResolver;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${chat.ws.resume.max-messages:500}")
+    private int resumeMaxMessages;
+
+    @Value("${chat.ws.resume.lookback-seconds:30}")
+    private long resumeLookbackSeconds;
+
+    @Value("${chat.after-commit.threads:2}")
+    private int afterCommitThreads;
+
+    @Value("${chat.after-commit.queue-capacity:1000}")
+    private int afterCommitQueueCapacity;
+
+    // 本节点是否有后台群发在运行，以及最近一次群发的进度
+    private final AtomicBoolean broadcasting = new AtomicBoolean();
+    private final AtomicReference<BroadcastStatus> broadcastStatus = new AtomicReference<>();
+
+    // 提交后更新对话的线程池
+    private ThreadPoolExecutor afterCommitExecutor;
+
+    // 提交后更新对话用独立的新事务：队列满时在提交线程的 afterCommit 中执行，原事务已结束，不能再加入
+    private TransactionTemplate afterCommitTransactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        webSocketHandler.setResumeListener(this::replay);
+
+        AtomicInteger counter = new AtomicInteger();
+        // 队列满时由提交线程自己执行，形成背压
+        afterCommitExecutor = new ThreadPoolExecutor(afterCommitThreads, afterCommitThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(afterCommitQueueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "chat-after-commit-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        afterCommitTransactionTemplate = new TransactionTemplate(transactionManager);
+        afterCommitTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        afterCommitExecutor.shutdown();
+        afterCommitExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    }
 
     @Transactional
     public ChatDto.MessageResponse sendMessage(ChatDto.SendMessageRequest request, User sender) {
-        User receiver = userRepository.findById(request.getReceiverId())
-                .orElseThrow(() -> new RuntimeException("用户不存在"));
-
-        if (sender.getId().equals(receiver.getId())) {
+        if (sender.getId().equals(request.getReceiverId())) {
             throw new RuntimeException("不能给自己发消息");
         }
 
-        // 检查聊天权限
+        User receiver = userRepository.findById(request.getReceiverId())
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
+
+        // 检查聊天权限：管理员和 AI 聊天不受限制，只有普通用户之间才查询系统配置
         boolean senderIsAdmin = sender.getIsAdmin() != null && sender.getIsAdmin();
         boolean receiverIsAdmin = receiver.getIsAdmin() != null && receiver.getIsAdmin();
-        boolean allowUserChat = systemConfigService.isAllowUserChat();
         boolean isAiChat = aiService.isAiUser(receiver.getId()) || aiService.isAiUser(sender.getId());
         
         // 如果不允许用户间聊天，且双方都不是管理员，且不是AI聊天，则拒绝
-        if (!allowUserChat && !senderIsAdmin && !receiverIsAdmin && !isAiChat) {
+        if (!senderIsAdmin && !receiverIsAdmin && !isAiChat && !systemConfigService.isAllowUserChat()) {
             throw new RuntimeException("目前只能与客服人员聊天");
         }
 
-        // 查找或创建对话
-        Conversation conversation = conversationRepository.findByUsers(sender, receiver)
-                .orElseGet(() -> {
-                    Conversation newConv = new Conversation();
-                    newConv.setUser1(sender);
-                    newConv.setUser2(receiver);
-                    return conversationRepository.save(newConv);
-                });
+        // 查找或创建对话（按用户对缓存，命中时不查库）
+        Conversation conversation = conversationRepository.getReferenceById(
+                conversationPairResolver.resolve(sender.getId(), receiver.getId()));
 
         // 创建消息
         Message message = new Message();
@@ -69,33 +166,320 @@ public class ChatService {
 
         message = messageRepository.save(message);
 
-        // 更新对话的最后消息时间
-        conversation.setLastMessageAt(LocalDateTime.now());
-        conversationRepository.save(conversation);
+        // 推送、AI 回复和更新对话都在提交之后，失败不影响消息本身
+        Long conversationId = conversation.getId();
+        Message saved = message;
+        runAfterCommit(() -> {
+            // 通过 WebSocket 推送给接收者
+            pushMessageToUser(receiver.getId(), conversationId, saved);
 
-        // 通过 WebSocket 推送给接收者
-        pushMessageToUser(receiver.getId(), conversation.getId(), message);
+            // 如果收件人是AI用户，异步生成AI回复（提交后对话和消息对 AI 回复的事务可见）
+            if (aiService.isAiUser(receiver.getId())) {
+                aiReplyService.generateAndSendReply(
+                        conversationId,
+                        receiver.getId(),
+                        sender.getId(),
+                        receiver.getNickname(),
+                        receiver.getAvatar(),
+                        request.getContent()
+                );
+            }
 
-        // 如果收件人是AI用户，异步生成AI回复
-        if (aiService.isAiUser(receiver.getId())) {
-            aiReplyService.generateAndSendReply(
-                    conversation.getId(),
-                    receiver.getId(),
-                    sender.getId(),
-                    receiver.getNickname(),
-                    receiver.getAvatar(),
-                    request.getContent()
-            );
-        }
+            // 更新对话的最后消息快照和接收方未读数
+            afterCommitExecutor.execute(() -> recordMessage(conversationId, saved));
+        });
 
         return toMessageResponse(message);
     }
 
+    /**
+     * 批量发送消息（每条可以发给不同用户）
+     * 权限检查、用户和对话查询都按批进行，消息用 JDBC 批量插入，提交后并行推送
+     */
+    @Transactional
+    public List<ChatDto.MessageResponse> sendMessages(List<ChatDto.SendMessageRequest> requests, User sender) {
+        Set<Long> receiverIds = requests.stream()
+                .map(ChatDto.SendMessageRequest::getReceiverId)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        if (receiverIds.contains(sender.getId())) {
+            throw new RuntimeException("不能给自己发消息");
+        }
+
+        Map<Long, User> receivers = userRepository.findAllById(receiverIds).stream()
+                .collect(Collectors.toMap(User::getId, u -> u));
+        if (receivers.size() < receiverIds.size()) {
+            throw new RuntimeException("用户不存在");
+        }
+
+        // 检查聊天权限：有普通用户之间的消息时才查询一次系统配置
+        boolean senderIsAdmin = sender.getIsAdmin() != null && sender.getIsAdmin();
+        if (!senderIsAdmin && !aiService.isAiUser(sender.getId())) {
+            boolean hasUserChat = receivers.values().stream()
+                    .anyMatch(r -> !(r.getIsAdmin() != null && r.getIsAdmin()) && !aiService.isAiUser(r.getId()));
+            if (hasUserChat && !systemConfigService.isAllowUserChat()) {
+                throw new RuntimeException("目前只能与客服人员聊天");
+            }
+        }
+
+        List<Delivery> deliveries = writeMessages(sender, requests.stream()
+                .map(r -> new Outgoing(r.getReceiverId(), r.getContent(),
+                        r.getType() != null ? r.getType() : Message.MessageType.TEXT))
+                .collect(Collectors.toList()));
+
+        // 发给 AI 用户的消息提交后生成回复
+        runAfterCommit(() -> deliveries.stream()
+                .filter(d -> aiService.isAiUser(d.receiverId()))
+                .forEach(d -> {
+                    User receiver = receivers.get(d.receiverId());
+                    aiReplyService.generateAndSendReply(d.conversationId(), receiver.getId(), sender.getId(),
+                            receiver.getNickname(), receiver.getAvatar(), d.message().getContent());
+                }));
+
+        return deliveries.stream()
+                .map(d -> toMessageResponse(d.message()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 在后台线程向所有用户群发同一条消息，进度和结果通过 getBroadcastStatus 查询
+     * @return 本节点已有群发在运行时返回 false
+     */
+    public boolean startBroadcastToAll(User sender, String content, Message.MessageType type) {
+        if (!broadcasting.compareAndSet(false, true)) {
+            return false;
+        }
+        AtomicInteger sent = new AtomicInteger();
+        LocalDateTime startedAt = LocalDateTime.now();
+        broadcastStatus.set(new BroadcastStatus(sender.getId(), true, 0, startedAt, null, null));
+        Thread thread = new Thread(() -> {
+            String error = null;
+            try {
+                broadcastToUsers(sender, null, content, type, batchSent -> broadcastStatus.set(new BroadcastStatus(
+                        sender.getId(), true, sent.addAndGet(batchSent), startedAt, null, null)));
+            } catch (Exception e) {
+                log.error("Broadcast failed: senderId={}, sent={}", sender.getId(), sent.get(), e);
+                error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            } finally {
+                broadcastStatus.set(new BroadcastStatus(sender.getId(), false, sent.get(), startedAt, LocalDateTime.now(), error));
+                broadcasting.set(false);
+            }
+        }, "chat-broadcast");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * 本节点最近一次后台群发的进度或结果，没有群发过时返回 null
+     */
+    public BroadcastStatus getBroadcastStatus() {
+        return broadcastStatus.get();
+    }
+
+    /**
+     * 向多个用户发送同一条消息（userIds 为空时发给所有用户），返回发送的消息数
+     * 每 BROADCAST_BATCH_SIZE 个用户一个事务，前一批提交后推送的同时写入下一批
+     * 不检查聊天权限（由调用方限制为管理员），跳过发送者自己和 AI 用户
+     */
+    public int broadcastToUsers(User sender, Collection<Long> userIds, String content, Message.MessageType type) {
+        return broadcastToUsers(sender, userIds, content, type, batchSent -> {});
+    }
+
+    private int broadcastToUsers(User sender, Collection<Long> userIds, String content, Message.MessageType type,
+                                 IntConsumer onBatchSent) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        int sent = 0;
+        if (userIds == null || userIds.isEmpty()) {
+            long afterId = 0;
+            List<Long> batch;
+            do {
+                batch = userRepository.findIdsAfter(afterId, PageRequest.of(0, BROADCAST_BATCH_SIZE));
+                if (!batch.isEmpty()) {
+                    afterId = batch.get(batch.size() - 1);
+                    int batchSent = broadcastBatch(transactionTemplate, sender, batch, content, type);
+                    sent += batchSent;
+                    onBatchSent.accept(batchSent);
+                }
+            } while (batch.size() == BROADCAST_BATCH_SIZE);
+        } else {
+            List<Long> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+            for (int i = 0; i < ids.size(); i += BROADCAST_BATCH_SIZE) {
+                List<Long> existing = userRepository.findExistingIds(
+                        ids.subList(i, Math.min(i + BROADCAST_BATCH_SIZE, ids.size())));
+                int batchSent = broadcastBatch(transactionTemplate, sender, existing, content, type);
+                sent += batchSent;
+                onBatchSent.accept(batchSent);
+            }
+        }
+        log.info("Broadcast sent: senderId={}, messages={}", sender.getId(), sent);
+        return sent;
+    }
+
+    private int broadcastBatch(TransactionTemplate transactionTemplate, User sender, List<Long> userIds,
+                               String content, Message.MessageType type) {
+        List<Outgoing> outgoing = userIds.stream()
+                .filter(id -> !id.equals(sender.getId()) && !aiService.isAiUser(id))
+                .map(id -> new Outgoing(id, content, type))
+                .collect(Collectors.toList());
+        if (outgoing.isEmpty()) {
+            return 0;
+        }
+        transactionTemplate.executeWithoutResult(status -> writeMessages(sender, outgoing));
+        return outgoing.size();
+    }
+
+    /**
+     * 在当前事务中批量写入消息，提交后分片并行推送并批量更新对话快照
+     */
+    private List<Delivery> writeMessages(User sender, List<Outgoing> outgoing) {
+        Map<Long, Long> conversationIds = conversationPairResolver.resolveAll(sender.getId(),
+                outgoing.stream().map(Outgoing::receiverId).collect(Collectors.toCollection(LinkedHashSet::new)));
+
+        LocalDateTime now = LocalDateTime.now();
+        SqlParameterSource[] batch = outgoing.stream()
+                .map(o -> new MapSqlParameterSource()
+                        .addValue("conversationId", conversationIds.get(o.receiverId()))
+                        .addValue("senderId", sender.getId())
+                        .addValue("content", o.content())
+                        .addValue("type", o.type().name())
+                        .addValue("createdAt", now))
+                .toArray(SqlParameterSource[]::new);
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        namedJdbcTemplate.batchUpdate(INSERT_MESSAGE_SQL, batch, keyHolder, new String[]{"id"});
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+
+        List<Delivery> deliveries = new ArrayList<>(outgoing.size());
+        for (int i = 0; i < outgoing.size(); i++) {
+            Outgoing o = outgoing.get(i);
+            Message message = new Message();
+            message.setId(((Number) keys.get(i).get("id")).longValue());
+            message.setSender(sender);
+            message.setContent(o.content());
+            message.setType(o.type());
+            message.setCreatedAt(now);
+            deliveries.add(new Delivery(o.receiverId(), conversationIds.get(o.receiverId()), message));
+        }
+
+        runAfterCommit(() -> {
+            for (int i = 0; i < deliveries.size(); i += FAN_OUT_SLICE_SIZE) {
+                List<Delivery> slice = deliveries.subList(i, Math.min(i + FAN_OUT_SLICE_SIZE, deliveries.size()));
+                afterCommitExecutor.execute(() -> deliver(slice));
+            }
+        });
+        return deliveries;
+    }
+
+    private void deliver(List<Delivery> deliveries) {
+        for (Delivery d : deliveries) {
+            pushMessageToUser(d.receiverId(), d.conversationId(), d.message());
+        }
+        try {
+            afterCommitTransactionTemplate.executeWithoutResult(status ->
+                    namedJdbcTemplate.batchUpdate(ConversationRepository.RECORD_MESSAGE_SQL, deliveries.stream()
+                            .map(d -> new MapSqlParameterSource()
+                                    .addValue("id", d.conversationId())
+                                    .addValue("messageId", d.message().getId())
+                                    .addValue("senderId", d.message().getSender().getId())
+                                    .addValue("content", d.message().getContent())
+                                    .addValue("type", d.message().getType().name())
+                                    .addValue("at", d.message().getCreatedAt()))
+                            .toArray(SqlParameterSource[]::new)));
+        } catch (Exception e) {
+            log.error("Failed to update conversation snapshots for {} messages", deliveries.size(), e);
+        }
+    }
+
+    private void runAfterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void recordMessage(Long conversationId, Message message) {
+        try {
+            afterCommitTransactionTemplate.executeWithoutResult(status ->
+                    conversationRepository.recordMessage(conversationId, message.getId(), message.getSender().getId(),
+                            message.getContent(), message.getType().name(), message.getCreatedAt()));
+        } catch (Exception e) {
+            log.error("Failed to update conversation snapshot: conversationId={}, messageId={}",
+                    conversationId, message.getId(), e);
+        }
+    }
+
+    /**
+     * 启动时为历史对话补齐最后消息快照
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillLastMessages() {
+        int updated = conversationRepository.backfillLastMessages();
+        if (updated > 0) {
+            log.info("Backfilled last message snapshot for {} conversations", updated);
+        }
+    }
+
+    /**
+     * 把对话中对方发来的消息全部标记为已读，并通知双方
+     */
+    @Transactional
+    public ChatDto.ReadResponse markRead(Long conversationId, User user) {
+        Conversation conversation = conversationRepository.findById(conversationId)
+                .orElseThrow(() -> new RuntimeException("对话不存在"));
+        boolean isUser1 = conversation.getUser1().getId().equals(user.getId());
+        if (!isUser1 && !conversation.getUser2().getId().equals(user.getId())) {
+            throw new RuntimeException("无权查看此对话");
+        }
+
+        ChatDto.ReadResponse response = new ChatDto.ReadResponse();
+        response.setConversationId(conversationId);
+        response.setUnreadCount(0);
+
+        Integer unread = isUser1 ? conversation.getUser1UnreadCount() : conversation.getUser2UnreadCount();
+        Long lastRead = isUser1 ? conversation.getUser1LastReadId() : conversation.getUser2LastReadId();
+        Long lastMessageId = conversation.getLastMessageId();
+        // 没有新消息时不写库（会话页每次打开都会调用）
+        if ((unread == null || unread == 0) && lastMessageId != null && lastRead != null && lastRead >= lastMessageId) {
+            response.setLastReadMessageId(lastRead);
+            return response;
+        }
+
+        Long upTo = messageRepository.findMaxIdByConversationId(conversationId);
+        if (upTo == null) {
+            return response;
+        }
+        messageRepository.markRead(conversationId, user.getId(), upTo);
+        conversationRepository.markRead(conversationId, user.getId(), upTo);
+        response.setLastReadMessageId(upTo);
+
+        // 通知对方（显示已读）和自己的其他设备（清除未读标记）
+        Long otherUserId = isUser1 ? conversation.getUser2().getId() : conversation.getUser1().getId();
+        WebSocketMessage wsMessage = WebSocketMessage.builder()
+                .type("MESSAGE_READ")
+                .conversationId(conversationId)
+                .read(WebSocketMessage.ReadPayload.builder()
+                        .userId(user.getId())
+                        .lastReadMessageId(upTo)
+                        .build())
+                .build();
+        runAfterCommit(() -> webSocketHandler.sendMessageToUsers(List.of(otherUserId, user.getId()), wsMessage));
+        return response;
+    }
+
     /**
      * 通过 WebSocket 推送消息给用户
      */
     private void pushMessageToUser(Long userId, Long conversationId, Message message) {
-        WebSocketMessage wsMessage = WebSocketMessage.builder()
+        webSocketHandler.sendMessageToUser(userId, toNewMessageEvent(conversationId, message));
+    }
+
+    private WebSocketMessage toNewMessageEvent(Long conversationId, Message message) {
+        return WebSocketMessage.builder()
                 .type("NEW_MESSAGE")
                 .conversationId(conversationId)
                 .message(WebSocketMessage.MessagePayload.builder()
@@ -110,53 +494,187 @@ public class ChatService {
                                 message.getCreatedAt().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME) : null)
                         .build())
                 .build();
-        
-        webSocketHandler.sendMessageToUser(userId, wsMessage);
+    }
+
+    /**
+     * 断线重连补发：按消息 ID 顺序推送 sinceMessageId 之后的消息，最后发送 RESUMED
+     * 还会补发 sinceMessageId 创建前 chat.ws.resume.lookback-seconds 内的消息（ID 更小但提交更晚的消息），客户端按 ID 去重
+     * 遗漏超过 chat.ws.resume.max-messages 条时只补发最早的部分，由客户端重新拉取
+     */
+    private void replay(WebSocketSession session, Long userId, long sinceMessageId) {
+        try {
+            LocalDateTime from = messageRepository.findCreatedAtById(sinceMessageId)
+                    .orElseGet(LocalDateTime::now)
+                    .minusSeconds(resumeLookbackSeconds);
+            List<Long> conversationIds = conversationRepository.findIdsByUserId(userId);
+            List<Message> messages = conversationIds.isEmpty() ? List.of()
+                    : messageRepository.findInConversationsSince(conversationIds, sinceMessageId, from,
+                            PageRequest.of(0, resumeMaxMessages + 1));
+            boolean complete = messages.size() <= resumeMaxMessages;
+            long lastMessageId = sinceMessageId;
+            int replayed = 0;
+            for (Message message : messages) {
+                if (replayed == resumeMaxMessages) {
+                    break;
+                }
+                webSocketHandler.sendMessageToSession(session,
+                        toNewMessageEvent(message.getConversation().getId(), message));
+                lastMessageId = Math.max(lastMessageId, message.getId());
+                replayed++;
+            }
+            webSocketHandler.sendMessageToSession(session, WebSocketMessage.builder()
+                    .type("RESUMED")
+                    .resume(WebSocketMessage.ResumePayload.builder()
+                            .lastMessageId(lastMessageId)
+                            .replayed(replayed)
+                            .complete(complete)
+                            .build())
+                    .build());
+        } catch (Exception e) {
+            log.error("Failed to replay messages: userId={}, since={}", userId, sinceMessageId, e);
+        }
     }
 
     public Page<ChatDto.ConversationResponse> getConversations(User user, Pageable pageable) {
-        return conversationRepository.findByUser(user, pageable)
+        Page<ChatDto.ConversationResponse> page = conversationRepository.findByUser(user, pageable)
                 .map(conv -> toConversationResponse(conv, user));
-    }
 
-    public ChatDto.ConversationDetailResponse getConversationDetail(Long conversationId, User user, Pageable pageable) {
-        Conversation conversation = conversationRepository.findById(conversationId)
-                .orElseThrow(() -> new RuntimeException("对话不存在"));
+        // 一次查询本页所有对方的在线状态
+        Map<Long, PresenceService.Presence> presence = presenceService.getPresence(page.getContent().stream()
+                .map(conv -> conv.getOtherUser().getId())
+                .collect(Collectors.toList()));
+        for (ChatDto.ConversationResponse conv : page.getContent()) {
+            PresenceService.Presence p = presence.get(conv.getOtherUser().getId());
+            conv.setOtherUserOnline(p != null && p.online());
+            conv.setOtherUserLastSeenAt(p != null ? p.lastSeenAt() : null);
+        }
+        return page;
+    }
 
-        // 验证权限
-        if (!conversation.getUser1().getId().equals(user.getId()) &&
-            !conversation.getUser2().getId().equals(user.getId())) {
-            throw new RuntimeException("无权查看此对话");
+    /**
+     * 批量查询用户在线状态，只返回与当前用户有过对话的用户
+     */
+    public List<ChatDto.PresenceResponse> getPresence(List<Long> userIds, User user) {
+        if (userIds.size() > MAX_PRESENCE_USERS) {
+            throw new RuntimeException("一次最多查询" + MAX_PRESENCE_USERS + "个用户");
+        }
+        if (userIds.isEmpty()) {
+            return List.of();
         }
+        Set<Long> partnerIds = new HashSet<>(conversationRepository.findPartnerIdsIn(user.getId(), userIds));
+        List<Long> visible = userIds.stream().distinct().filter(partnerIds::contains).collect(Collectors.toList());
+        Map<Long, PresenceService.Presence> presence = presenceService.getPresence(visible);
+        return visible.stream().map(id -> {
+            PresenceService.Presence p = presence.get(id);
+            ChatDto.PresenceResponse response = new ChatDto.PresenceResponse();
+            response.setUserId(id);
+            response.setOnline(p != null && p.online());
+            response.setLastSeenAt(p != null ? p.lastSeenAt() : null);
+            return response;
+        }).collect(Collectors.toList());
+    }
+
+    @Transactional(readOnly = true)
+    public ChatDto.ConversationDetailResponse getConversationDetail(Long conversationId, User user, Pageable pageable) {
+        Conversation conversation = getParticipantConversation(conversationId, user);
 
         User otherUser = conversation.getUser1().getId().equals(user.getId()) ?
                 conversation.getUser2() : conversation.getUser1();
 
+        // 兼容旧客户端的页码分页（偏移量仍为 page * size，多取一条判断是否还有更多），不执行 COUNT；翻页请使用 getMessages 的游标
+        List<Message> messages = messageRepository.findPage(conversationId,
+                pageable.getOffset(), pageable.getPageSize() + 1);
+        boolean hasMore = messages.size() > pageable.getPageSize();
+
         ChatDto.ConversationDetailResponse response = new ChatDto.ConversationDetailResponse();
         response.setId(conversation.getId());
         response.setOtherUser(itemService.toUserBrief(otherUser));
-        response.setMessages(messageRepository.findByConversationOrderByCreatedAtDesc(conversation, pageable)
-                .getContent().stream()
+        response.setMessages(messages.stream()
+                .limit(pageable.getPageSize())
                 .map(this::toMessageResponse)
                 .collect(Collectors.toList()));
+        response.setHasMore(hasMore);
+
+        return response;
+    }
+
+    /**
+     * 按消息 ID 游标查询聊天记录
+     * @param before 查询该消息之前的更早消息（从新到旧），都为空时返回最新的消息
+     * @param after  查询该消息之后的新消息（从旧到新），用于断线重连后补齐
+     */
+    public ChatDto.MessageHistoryResponse getMessages(Long conversationId, User user, Long before, Long after, int limit) {
+        if (before != null && after != null) {
+            throw new RuntimeException("before 和 after 不能同时指定");
+        }
+        getParticipantConversation(conversationId, user);
+        int size = Math.max(1, Math.min(limit, MAX_HISTORY_LIMIT));
+        // 多查一条判断是否还有更多
+        Pageable page = PageRequest.of(0, size + 1);
+
+        List<Message> messages;
+        if (before != null) {
+            LocalDateTime createdAt = messageRepository.findCreatedAt(conversationId, before)
+                    .orElseThrow(() -> new RuntimeException("消息不存在"));
+            messages = messageRepository.findBefore(conversationId, createdAt, before, page);
+        } else if (after != null) {
+            LocalDateTime createdAt = messageRepository.findCreatedAt(conversationId, after)
+                    .orElseThrow(() -> new RuntimeException("消息不存在"));
+            messages = messageRepository.findAfter(conversationId, createdAt, after, page);
+        } else {
+            messages = messageRepository.findLatest(conversationId, page);
+        }
 
+        ChatDto.MessageHistoryResponse response = new ChatDto.MessageHistoryResponse();
+        response.setMessages(messages.stream()
+                .limit(size)
+                .map(this::toMessageResponse)
+                .collect(Collectors.toList()));
+        response.setHasMore(messages.size() > size);
         return response;
     }
 
+    private Conversation getParticipantConversation(Long conversationId, User user) {
+        Conversation conversation = conversationRepository.findById(conversationId)
+                .orElseThrow(() -> new RuntimeException("对话不存在"));
+
+        // 验证权限
+        if (!conversation.getUser1().getId().equals(user.getId()) &&
+            !conversation.getUser2().getId().equals(user.getId())) {
+            throw new RuntimeException("无权查看此对话");
+        }
+        return conversation;
+    }
+
     private ChatDto.ConversationResponse toConversationResponse(Conversation conversation, User currentUser) {
-        User otherUser = conversation.getUser1().getId().equals(currentUser.getId()) ?
-                conversation.getUser2() : conversation.getUser1();
+        boolean isUser1 = conversation.getUser1().getId().equals(currentUser.getId());
+        User self = isUser1 ? conversation.getUser1() : conversation.getUser2();
+        User otherUser = isUser1 ? conversation.getUser2() : conversation.getUser1();
+        Integer unread = isUser1 ? conversation.getUser1UnreadCount() : conversation.getUser2UnreadCount();
+        Long otherLastRead = isUser1 ? conversation.getUser2LastReadId() : conversation.getUser1LastReadId();
 
         ChatDto.ConversationResponse response = new ChatDto.ConversationResponse();
         response.setId(conversation.getId());
         response.setOtherUser(itemService.toUserBrief(otherUser));
         response.setLastMessageAt(conversation.getLastMessageAt());
+        response.setUnreadCount(unread != null ? unread : 0);
 
-        // 获取最后一条消息
-        Page<Message> lastMessages = messageRepository.findByConversationOrderByCreatedAtDesc(
-                conversation, Pageable.ofSize(1));
-        if (!lastMessages.isEmpty()) {
-            response.setLastMessage(toMessageResponse(lastMessages.getContent().get(0)));
+        // 最后一条消息取自对话上的快照
+        if (conversation.getLastMessageId() != null) {
+            boolean sentBySelf = self.getId().equals(conversation.getLastMessageSenderId());
+            User sender = sentBySelf ? self : otherUser;
+            ChatDto.MessageResponse lastMessage = new ChatDto.MessageResponse();
+            lastMessage.setId(conversation.getLastMessageId());
+            lastMessage.setSenderId(sender.getId());
+            lastMessage.setSenderNickname(sender.getNickname());
+            lastMessage.setSenderAvatar(sender.getAvatar());
+            lastMessage.setContent(conversation.getLastMessagePreview());
+            lastMessage.setType(conversation.getLastMessageType());
+            lastMessage.setIsRead(sentBySelf ?
+                    otherLastRead != null && otherLastRead >= conversation.getLastMessageId() :
+                    response.getUnreadCount() == 0);
+            lastMessage.setCreatedAt(conversation.getLastMessageAt());
+            response.setLastMessage(lastMessage);
         }
 
         return response;
@@ -174,4 +692,14 @@ public class ChatService {
         response.setCreatedAt(message.getCreatedAt());
         return response;
     }
+
+    /**
+     * 后台群发的进度：running 为 false 时 finishedAt 为结束时间，error 为失败原因（成功时为 null）
+     */
+    public record BroadcastStatus(Long senderId, boolean running, int sent, LocalDateTime startedAt,
+                                  LocalDateTime finishedAt, String error) {}
+
+    private record Outgoing(Long receiverId, String content, Message.MessageType type) {}
+
+    private record Delivery(Long receiverId, Long conversationId, Message message) {}
 }
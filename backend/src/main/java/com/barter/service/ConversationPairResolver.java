@@ -0,0 +1,198 @@
+package com.barter.service;
+
+import com.barter.repository.ConversationRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按用户对查找或创建对话
+ * 对话按 (较小用户 ID, 较大用户 ID) 唯一，查找走唯一索引，创建用 INSERT ... ON CONFLICT，
+ * 并发的第一条消息不会创建重复对话；对话不会被删除，用户对到对话 ID 的映射可以一直缓存
+ * 还没有补齐用户对的历史对话（旧版本节点创建的）按 user1/user2 兜底查找，不会因此重复创建
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConversationPairResolver {
+
+    private final ConversationRepository conversationRepository;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    // 与 ConversationRepository.insertIfAbsent 相同，批量执行时不返回 ID
+    private static final String INSERT_IF_ABSENT_SQL = "INSERT INTO conversations (user1_id, user2_id, user_low_id, user_high_id, " +
+            "user1_unread_count, user2_unread_count, created_at, last_message_at) " +
+            "VALUES (:user1Id, :user2Id, LEAST(:user1Id, :user2Id), GREATEST(:user1Id, :user2Id), 0, 0, :now, :now) " +
+            "ON CONFLICT (user_low_id, user_high_id) DO NOTHING";
+
+    @Value("${chat.conversation-cache.max-size:50000}")
+    private int maxSize;
+
+    private final Map<UserPair, Long> conversationIds = new ConcurrentHashMap<>();
+
+    /**
+     * 返回两个用户之间的对话 ID，不存在则创建
+     * 在事务中新建的对话在事务提交后才放入缓存
+     */
+    public Long resolve(Long userId, Long otherUserId) {
+        UserPair pair = UserPair.of(userId, otherUserId);
+        Long conversationId = conversationIds.get(pair);
+        if (conversationId != null) {
+            return conversationId;
+        }
+
+        Optional<Long> existing = conversationRepository.findIdByUserPair(pair.lowId(), pair.highId())
+                .or(() -> Optional.ofNullable(findLegacy(userId, List.of(otherUserId)).get(otherUserId)));
+        if (existing.isPresent()) {
+            cache(pair, existing.get());
+            return existing.get();
+        }
+
+        Optional<Long> created = conversationRepository.insertIfAbsent(userId, otherUserId, LocalDateTime.now());
+        if (created.isEmpty()) {
+            // 并发创建时对方已插入（冲突时会等待对方事务提交）
+            Long id = conversationRepository.findIdByUserPair(pair.lowId(), pair.highId())
+                    .orElseThrow(() -> new RuntimeException("创建对话失败，请重试"));
+            cache(pair, id);
+            return id;
+        }
+
+        Long id = created.get();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache(pair, id);
+                }
+            });
+        } else {
+            cache(pair, id);
+        }
+        return id;
+    }
+
+    /**
+     * 批量返回用户与多个用户之间的对话 ID（key 为对方用户 ID），不存在的批量创建
+     * 未命中缓存的一次查询，缺少的一次批量插入后再查询一次
+     */
+    public Map<Long, Long> resolveAll(Long userId, Collection<Long> otherUserIds) {
+        Map<Long, Long> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long otherUserId : otherUserIds) {
+            Long conversationId = conversationIds.get(UserPair.of(userId, otherUserId));
+            if (conversationId != null) {
+                result.put(otherUserId, conversationId);
+            } else {
+                missing.add(otherUserId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        Map<Long, Long> found = findExisting(userId, missing);
+        found.forEach((otherUserId, conversationId) -> cache(UserPair.of(userId, otherUserId), conversationId));
+        result.putAll(found);
+        missing.removeIf(found::containsKey);
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        // 按固定顺序插入，并发批量创建时不会互相死锁
+        missing.sort(null);
+        LocalDateTime now = LocalDateTime.now();
+        SqlParameterSource[] batch = missing.stream()
+                .map(otherUserId -> new MapSqlParameterSource()
+                        .addValue("user1Id", userId)
+                        .addValue("user2Id", otherUserId)
+                        .addValue("now", now))
+                .toArray(SqlParameterSource[]::new);
+        namedJdbcTemplate.batchUpdate(INSERT_IF_ABSENT_SQL, batch);
+
+        Map<Long, Long> created = findExisting(userId, missing);
+        if (created.size() < missing.size()) {
+            throw new RuntimeException("创建对话失败，请重试");
+        }
+        result.putAll(created);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    created.forEach((otherUserId, conversationId) -> cache(UserPair.of(userId, otherUserId), conversationId));
+                }
+            });
+        } else {
+            created.forEach((otherUserId, conversationId) -> cache(UserPair.of(userId, otherUserId), conversationId));
+        }
+        return result;
+    }
+
+    private Map<Long, Long> findExisting(Long userId, List<Long> otherUserIds) {
+        Map<Long, Long> found = new HashMap<>();
+        for (Object[] row : conversationRepository.findIdsByUserPairs(userId, otherUserIds)) {
+            Long lowId = (Long) row[1];
+            Long highId = (Long) row[2];
+            found.put(userId.equals(lowId) ? highId : lowId, (Long) row[0]);
+        }
+        if (found.size() < otherUserIds.size()) {
+            List<Long> notFound = otherUserIds.stream().filter(id -> !found.containsKey(id)).toList();
+            findLegacy(userId, notFound).forEach(found::putIfAbsent);
+        }
+        return found;
+    }
+
+    /**
+     * 按 user1/user2 查找还没有用户对的历史对话（key 为对方用户 ID）
+     */
+    private Map<Long, Long> findLegacy(Long userId, List<Long> otherUserIds) {
+        Map<Long, Long> found = new HashMap<>();
+        for (Object[] row : conversationRepository.findLegacyIdsByUsers(userId, otherUserIds)) {
+            found.putIfAbsent((Long) row[1], (Long) row[0]);
+        }
+        return found;
+    }
+
+    /**
+     * 启动时为历史对话补齐用户对，在 Web 服务开始接收请求之前完成
+     */
+    @PostConstruct
+    public void backfillUserPairs() {
+        try {
+            int updated = conversationRepository.backfillUserPairs();
+            if (updated > 0) {
+                log.info("Backfilled user pair for {} conversations", updated);
+            }
+        } catch (Exception e) {
+            log.error("Failed to backfill conversation user pairs", e);
+        }
+    }
+
+    private void cache(UserPair pair, Long conversationId) {
+        if (conversationIds.size() >= maxSize) {
+            conversationIds.clear();
+        }
+        conversationIds.put(pair, conversationId);
+    }
+
+    private record UserPair(long lowId, long highId) {
+        static UserPair of(Long a, Long b) {
+            return a < b ? new UserPair(a, b) : new UserPair(b, a);
+        }
+    }
+}
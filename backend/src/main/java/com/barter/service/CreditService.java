@@ -4,6 +4,7 @@ import com.barter.entity.CreditRecord;
 import com.barter.entity.User;
 import com.barter.repository.CreditRecordRepository;
 import com.barter.repository.UserRepository;
+import com.barter.security.UserPrincipalCache;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -14,6 +15,7 @@ public class CreditService {
 
     private final UserRepository userRepository;
     private final CreditRecordRepository creditRecordRepository;
+    private final UserPrincipalCache userPrincipalCache;
 
     // 信用分变化值
     public static final int TRADE_COMPLETE = 5;      // 完成交易
@@ -75,11 +77,15 @@ public class CreditService {
      */
     @Transactional
     public void addCredit(User user, CreditRecord.CreditChangeType type, int change, String description, Long relatedId) {
+        // 传入的用户可能是缓存的快照，按数据库中的当前分数计算，避免覆盖其他字段
+        user = userRepository.findById(user.getId())
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
         int currentScore = user.getCreditScore() != null ? user.getCreditScore() : 100;
         int newScore = Math.max(0, currentScore + change);  // 不低于0
 
         user.setCreditScore(newScore);
         userRepository.save(user);
+        userPrincipalCache.evict(user.getId());
 
         // 记录变更
         CreditRecord record = new CreditRecord();
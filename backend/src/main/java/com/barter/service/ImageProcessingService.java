@@ -0,0 +1,425 @@
+package com.barter.service;
+
+import com.barter.entity.ItemImage;
+import com.barter.repository.ItemImageRepository;
+import com.barter.websocket.ChatWebSocketHandler;
+import com.barter.websocket.WebSocketMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * 物品图片异步处理
+ * 上传时只把原文件写入暂存目录，事务提交后由有界线程池压缩并更新 ItemImage 状态，
+ * 全部图片处理完成后通过 WebSocket 通知物品主人
+ * 每张图片按 image.variants.sizes 生成多个尺寸：最大尺寸为 xxx.jpg，其余为 xxx_{size}.jpg
+ * 文件按内容哈希命名（见 ImageStorageService），已处理过的相同内容直接复用
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ImageProcessingService {
+
+    private final ItemImageRepository itemImageRepository;
+    private final ImageStorageService imageStorageService;
+    private final ChatWebSocketHandler webSocketHandler;
+
+    @Value("${image.processing.threads:2}")
+    private int threads;
+
+    @Value("${image.processing.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${image.variants.backfill-on-startup:true}")
+    private boolean backfillOnStartup;
+
+    // 认领后超过这个时间仍在处理中的图片可被其他节点重新认领
+    @Value("${image.processing.claim-timeout-minutes:10}")
+    private long claimTimeoutMinutes;
+
+    private static final int BACKFILL_BATCH_SIZE = 200;
+
+    private ThreadPoolExecutor executor;
+
+    private final AtomicBoolean backfillRunning = new AtomicBoolean(false);
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        // 队列满时由提交线程自己处理，形成背压
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "image-worker-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 检查处理队列是否还能容纳这批图片，满了直接拒绝上传
+     */
+    public void checkCapacity(int imageCount) {
+        if (executor.getQueue().remainingCapacity() < imageCount) {
+            throw new RuntimeException("图片处理繁忙，请稍后再试");
+        }
+    }
+
+    /**
+     * 把上传文件写入暂存目录并增加引用
+     * 相同内容已经处理过时直接返回已就绪，不再解码和压缩
+     */
+    public StagedImage stage(MultipartFile file) {
+        ImageStorageService.StagedFile staged = imageStorageService.stage(file);
+        imageStorageService.acquireItemImage(staged.hash());
+        String imageUrl = "/uploads/" + staged.hash() + ".jpg";
+        if (imageStorageService.hasAllVariants(staged.hash())) {
+            deleteQuietly(stagingPath(staged.name()));
+            return new StagedImage(imageUrl, true, null);
+        }
+        return new StagedImage(imageUrl, false, staged.name());
+    }
+
+    /**
+     * 释放被删除或替换的图片的引用（与 stage 中的引用对应），在删除图片行的同一事务中调用
+     */
+    public void release(List<ItemImage> images) {
+        images.forEach(image -> imageStorageService.releaseItemImage(image.getImageUrl()));
+    }
+
+    /**
+     * 事务提交后提交处理任务（只处理状态为 PROCESSING 的图片），回滚则删除暂存文件
+     */
+    public void submitAfterCommit(Long itemId, Long ownerId, List<ItemImage> images) {
+        List<Task> tasks = images.stream()
+                .filter(image -> image.getStatus() == ItemImage.ImageStatus.PROCESSING && image.getStagingName() != null)
+                .map(image -> new Task(image.getId(), image.getImageUrl(), stagingPath(image.getStagingName()), itemId, ownerId))
+                .toList();
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            tasks.forEach(this::submit);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    tasks.forEach(ImageProcessingService.this::submit);
+                } else {
+                    tasks.forEach(task -> deleteQuietly(task.staging()));
+                }
+            }
+        });
+    }
+
+    /**
+     * 启动时恢复未处理完的图片，并补齐历史图片的缩略图
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        resumeStale();
+        if (backfillOnStartup) {
+            startVariantBackfill();
+        }
+    }
+
+    /**
+     * 认领并恢复超时未处理完的图片（节点宕机或重启遗留的），各节点定期执行，每张图片只由一个节点认领
+     * 暂存文件名不入库，按内容哈希找任意一份暂存文件处理
+     */
+    @Scheduled(initialDelayString = "${image.processing.resume-interval-ms:60000}",
+               fixedDelayString = "${image.processing.resume-interval-ms:60000}")
+    public void resumeStale() {
+        List<Long> claimed;
+        do {
+            LocalDateTime now = LocalDateTime.now();
+            claimed = itemImageRepository.claimStale(now.minusMinutes(claimTimeoutMinutes), now, BACKFILL_BATCH_SIZE);
+            if (claimed.isEmpty()) {
+                return;
+            }
+            for (ItemImage image : itemImageRepository.findWithItemByIdIn(claimed)) {
+                String name = baseName(image.getImageUrl());
+                Optional<Path> staging = imageStorageService.findStaging(name);
+                if (staging.isPresent()) {
+                    submit(new Task(image.getId(), image.getImageUrl(), staging.get(),
+                            image.getItem().getId(), image.getItem().getOwner().getId()));
+                } else if (imageStorageService.hasAllVariants(name)) {
+                    itemImageRepository.updateStatus(image.getId(), ItemImage.ImageStatus.READY);
+                } else {
+                    itemImageRepository.updateStatus(image.getId(), ItemImage.ImageStatus.FAILED);
+                }
+            }
+            log.info("Resumed {} pending images", claimed.size());
+        } while (claimed.size() == BACKFILL_BATCH_SIZE);
+    }
+
+    /**
+     * 各尺寸的访问地址（尺寸 -> URL，从小到大）
+     * 还未生成缩略图的历史图片（状态为 null）和不是 /uploads/{hash}.jpg 的地址所有尺寸都返回原图地址
+     */
+    public Map<String, String> variantUrls(ItemImage image) {
+        int[] sizes = imageStorageService.variantSizes();
+        Map<String, String> urls = new LinkedHashMap<>();
+        for (int i = sizes.length - 1; i >= 0; i--) {
+            int size = sizes[i];
+            urls.put(String.valueOf(size), image.getStatus() == ItemImage.ImageStatus.READY
+                    ? imageStorageService.variantUrl(image.getImageUrl(), size)
+                    : image.getImageUrl());
+        }
+        return urls;
+    }
+
+    /**
+     * 后台为已有图片补齐缺少的尺寸（按 ID 分批，任务经处理线程池执行）
+     * @return 已有补齐任务在运行时返回 false
+     */
+    public boolean startVariantBackfill() {
+        if (!backfillRunning.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                backfillVariants();
+            } catch (Exception e) {
+                log.error("Image variant backfill failed", e);
+            } finally {
+                backfillRunning.set(false);
+            }
+        }, "image-variant-backfill");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void backfillVariants() {
+        long afterId = 0;
+        int submitted = 0;
+        List<ItemImage> batch;
+        do {
+            batch = itemImageRepository.findBatchAfterId(afterId, PageRequest.of(0, BACKFILL_BATCH_SIZE));
+            for (ItemImage image : batch) {
+                afterId = image.getId();
+                ItemImage.ImageStatus status = image.getStatus();
+                if (status == ItemImage.ImageStatus.PROCESSING || status == ItemImage.ImageStatus.FAILED
+                        || !image.getImageUrl().startsWith("/uploads/")) {
+                    continue;
+                }
+                String name = baseName(image.getImageUrl());
+                if (!imageStorageService.hasAllVariants(name) || status == null) {
+                    // 队列过半时在当前线程处理，给新上传的图片留出容量
+                    if (executor.getQueue().remainingCapacity() < queueCapacity / 2) {
+                        backfill(image.getId(), name);
+                    } else {
+                        Long imageId = image.getId();
+                        executor.execute(() -> backfill(imageId, name));
+                    }
+                    submitted++;
+                }
+            }
+        } while (batch.size() == BACKFILL_BATCH_SIZE);
+        log.info("Image variant backfill submitted {} images", submitted);
+    }
+
+    private void backfill(Long imageId, String name) {
+        try {
+            Path main = variantPath(name, imageStorageService.variantSizes()[0]);
+            if (!Files.exists(main)) {
+                // 原图已丢失，标记为失败，不返回会 404 的地址
+                itemImageRepository.updateStatus(imageId, ItemImage.ImageStatus.FAILED);
+                return;
+            }
+            writeVariants(main, name, true);
+            itemImageRepository.updateStatus(imageId, ItemImage.ImageStatus.READY);
+        } catch (Exception e) {
+            log.error("Image variant backfill failed: imageId={}", imageId, e);
+        }
+    }
+
+    private void submit(Task task) {
+        executor.execute(() -> process(task));
+    }
+
+    private void process(Task task) {
+        String name = baseName(task.imageUrl());
+        Path staging = task.staging();
+        ItemImage.ImageStatus status;
+        try {
+            // 相同内容可能已被其他上传处理完成
+            if (!imageStorageService.hasAllVariants(name)) {
+                writeVariants(staging, name, false);
+            }
+            status = ItemImage.ImageStatus.READY;
+        } catch (Exception e) {
+            if (imageStorageService.hasAllVariants(name)) {
+                // 重启恢复时按哈希找到的暂存文件可能已被同内容的另一任务删除
+                status = ItemImage.ImageStatus.READY;
+            } else {
+                log.error("Image processing failed: imageId={}", task.imageId(), e);
+                status = ItemImage.ImageStatus.FAILED;
+            }
+        } finally {
+            deleteQuietly(staging);
+        }
+
+        itemImageRepository.updateStatus(task.imageId(), status);
+
+        if (!itemImageRepository.existsByItemIdAndStatus(task.itemId(), ItemImage.ImageStatus.PROCESSING)) {
+            webSocketHandler.sendMessageToUser(task.ownerId(), WebSocketMessage.builder()
+                    .type("ITEM_IMAGES_READY")
+                    .itemId(task.itemId())
+                    .build());
+        }
+    }
+
+    /**
+     * 解码一次，从大到小逐级缩放并写出各尺寸
+     * @param onlyMissing 只生成尚不存在的尺寸
+     */
+    private void writeVariants(Path source, String name, boolean onlyMissing) throws IOException {
+        int[] variantSizes = imageStorageService.variantSizes();
+        Files.createDirectories(variantPath(name, variantSizes[0]).getParent());
+
+        // 读取图片并压缩
+        BufferedImage image = ImageIO.read(source.toFile());
+        for (int size : variantSizes) {
+            Path target = variantPath(name, size);
+            if (image == null) {
+                // 如果无法读取为图片，各尺寸都直接保存原文件
+                if (!onlyMissing || !Files.exists(target)) {
+                    Path tmp = tempPath(target);
+                    Files.copy(source, tmp, StandardCopyOption.REPLACE_EXISTING);
+                    moveIntoPlace(tmp, target);
+                }
+                continue;
+            }
+            image = scaleDown(image, size);
+            if (onlyMissing && Files.exists(target)) {
+                continue;
+            }
+            writeJpeg(image, target);
+        }
+    }
+
+    private BufferedImage scaleDown(BufferedImage image, int maxSize) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width <= maxSize && height <= maxSize) {
+            return image;
+        }
+
+        double scale = Math.min((double) maxSize / width, (double) maxSize / height);
+        int newWidth = Math.max(1, (int) (width * scale));
+        int newHeight = Math.max(1, (int) (height * scale));
+
+        BufferedImage resizedImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = resizedImage.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, newWidth, newHeight, null);
+        g.dispose();
+        return resizedImage;
+    }
+
+    private void writeJpeg(BufferedImage image, Path target) throws IOException {
+        // 压缩质量为85%
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.85f);
+
+        // 先写临时文件再原子替换，其他请求不会读到写了一半的文件
+        Path tmp = tempPath(target);
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(tmp.toFile())) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        moveIntoPlace(tmp, target);
+    }
+
+    private Path tempPath(Path target) {
+        return target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+    }
+
+    private void moveIntoPlace(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path variantPath(String name, int size) {
+        return imageStorageService.variantPath(name, size);
+    }
+
+    private Path stagingPath(String name) {
+        return imageStorageService.stagingPath(name);
+    }
+
+    // "/uploads/xxx.jpg" -> "xxx"
+    private String baseName(String imageUrl) {
+        String filename = imageUrl.substring(imageUrl.lastIndexOf('/') + 1);
+        int dotIndex = filename.lastIndexOf('.');
+        return dotIndex > 0 ? filename.substring(0, dotIndex) : filename;
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete staging file {}", path, e);
+        }
+    }
+
+    /**
+     * 暂存结果，processed 为 true 表示相同内容已处理过，无需再提交任务（此时没有暂存文件）
+     */
+    public record StagedImage(String imageUrl, boolean processed, String stagingName) {}
+
+    private record Task(Long imageId, String imageUrl, Path staging, Long itemId, Long ownerId) {}
+}
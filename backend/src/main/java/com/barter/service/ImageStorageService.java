@@ -0,0 +1,305 @@
+package com.barter.service;
+
+import com.barter.entity.ImageBlob;
+import com.barter.repository.ImageBlobRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按内容寻址的图片存储
+ * 文件以 SHA-256 命名，相同内容只存一份、只处理一次；引用计数记录在 image_blobs，
+ * 计数归零且超过宽限期的文件由定时任务清理
+ * 文件布局：物品图片 {hash}.jpg / {hash}_{size}.jpg，头像 avatars/{hash}.{ext}，暂存 staging/{hash}.{uuid}
+ * 暂存文件每次上传单独一份（并发上传相同内容互不删除对方的暂存文件），只在最终的各尺寸文件上去重
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ImageStorageService {
+
+    private static final Pattern AVATAR_URL = Pattern.compile("^/uploads/(avatars/[0-9a-f]{64}\\.[a-z0-9]{1,10})$");
+    // 处理后生成各尺寸文件的图片地址
+    private static final Pattern VARIANT_URL = Pattern.compile("^/uploads/([0-9a-f]{64})\\.jpg$");
+    private static final Pattern EXTENSION = Pattern.compile("^\\.[a-z0-9]{1,10}$");
+    private static final int SWEEP_BATCH_SIZE = 100;
+
+    private final ImageBlobRepository imageBlobRepository;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${upload.path}")
+    private String uploadPath;
+
+    @Value("${image.variants.sizes:200,600,1920}")
+    private int[] variantSizes;
+
+    @Value("${image.blob.gc-grace-minutes:60}")
+    private long gcGraceMinutes;
+
+    @PostConstruct
+    public void init() {
+        // 从大到小排列，第一个为原图尺寸
+        variantSizes = Arrays.stream(variantSizes).boxed()
+                .sorted(Comparator.reverseOrder())
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * 缩略图尺寸（从大到小）
+     */
+    public int[] variantSizes() {
+        return variantSizes;
+    }
+
+    public Path variantPath(String name, int size) {
+        return size == variantSizes[0]
+                ? Paths.get(uploadPath, name + ".jpg")
+                : Paths.get(uploadPath, name + "_" + size + ".jpg");
+    }
+
+    // 最大尺寸为原图地址，其余加尺寸后缀；不是 /uploads/{hash}.jpg 的地址（外部或历史图片）没有缩略图，返回原地址
+    public String variantUrl(String imageUrl, int size) {
+        if (size == variantSizes[0] || imageUrl == null) {
+            return imageUrl;
+        }
+        Matcher matcher = VARIANT_URL.matcher(imageUrl);
+        return matcher.matches() ? "/uploads/" + matcher.group(1) + "_" + size + ".jpg" : imageUrl;
+    }
+
+    /**
+     * 各尺寸文件是否都已生成（已生成的相同内容无需再处理）
+     */
+    public boolean hasAllVariants(String name) {
+        return Arrays.stream(variantSizes).allMatch(size -> Files.exists(variantPath(name, size)));
+    }
+
+    public Path stagingPath(String name) {
+        return Paths.get(uploadPath, "staging", name);
+    }
+
+    /**
+     * 把上传文件写入暂存目录，边写边计算哈希
+     * @return 内容哈希和暂存文件名 {hash}.{uuid}
+     */
+    public StagedFile stage(MultipartFile file) {
+        try {
+            String uploadId = UUID.randomUUID().toString();
+            Path tmp = stagingPath(".upload-" + uploadId);
+            Files.createDirectories(tmp.getParent());
+            String hash = copyAndHash(file, tmp);
+            String name = hash + "." + uploadId;
+            Files.move(tmp, stagingPath(name), StandardCopyOption.ATOMIC_MOVE);
+            return new StagedFile(hash, name);
+        } catch (IOException e) {
+            throw new RuntimeException("图片上传失败", e);
+        }
+    }
+
+    /**
+     * 查找某个内容的任意一份暂存文件（重启后恢复处理时使用，内容相同哪一份都可以）
+     */
+    public Optional<Path> findStaging(String hash) {
+        Path dir = stagingPath("");
+        if (!Files.isDirectory(dir)) {
+            return Optional.empty();
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, hash + ".*")) {
+            for (Path file : files) {
+                return Optional.of(file);
+            }
+            return Optional.empty();
+        } catch (IOException e) {
+            log.warn("Failed to list staging files for {}", hash, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 物品图片引用计数 +1（需在检查文件是否已存在之前调用，防止被并发清理）
+     */
+    public void acquireItemImage(String hash) {
+        imageBlobRepository.acquire(hash, ImageBlob.BlobKind.ITEM_IMAGE.name());
+    }
+
+    /**
+     * 物品图片引用计数 -1（图片被删除或替换时调用，计数归零的文件由定时任务清理）
+     * 不是 /uploads/{hash}.jpg 的地址（外部或历史图片）不在存储中管理，直接忽略
+     */
+    public void releaseItemImage(String imageUrl) {
+        if (imageUrl == null) {
+            return;
+        }
+        Matcher matcher = VARIANT_URL.matcher(imageUrl);
+        if (matcher.matches()) {
+            imageBlobRepository.release(matcher.group(1));
+        }
+    }
+
+    /**
+     * 保存头像并增加引用，相同内容直接复用已有文件
+     * 事务提交后才把文件移到最终位置，回滚时只删除临时文件，不留下没有引用的头像
+     * @return 头像访问地址
+     */
+    public String storeAvatar(MultipartFile file) {
+        Path tmp;
+        String key;
+        try {
+            Path dir = Paths.get(uploadPath, "avatars");
+            Files.createDirectories(dir);
+            tmp = dir.resolve(".upload-" + UUID.randomUUID());
+            try {
+                key = "avatars/" + copyAndHash(file, tmp) + extension(file.getOriginalFilename());
+            } catch (IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("头像上传失败", e);
+        }
+
+        imageBlobRepository.acquire(key, ImageBlob.BlobKind.AVATAR.name());
+        Path target = Paths.get(uploadPath, key);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            moveAvatar(tmp, target);
+        } else {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        moveAvatar(tmp, target);
+                    } else {
+                        deleteQuietly(tmp);
+                    }
+                }
+            });
+        }
+        return "/uploads/" + key;
+    }
+
+    /**
+     * 释放头像引用（旧版随机命名的头像不在存储中管理，直接忽略）
+     */
+    public void releaseAvatar(String avatarUrl) {
+        if (avatarUrl == null) {
+            return;
+        }
+        Matcher matcher = AVATAR_URL.matcher(avatarUrl);
+        if (matcher.matches()) {
+            imageBlobRepository.release(matcher.group(1));
+        }
+    }
+
+    /**
+     * 清理没有引用的文件，分批加锁删除，被并发引用的行会被跳过
+     */
+    @Scheduled(initialDelayString = "${image.blob.gc-interval-ms:3600000}",
+               fixedDelayString = "${image.blob.gc-interval-ms:3600000}")
+    public void sweep() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        int total = 0;
+        Integer deleted;
+        do {
+            deleted = transactionTemplate.execute(status -> {
+                List<ImageBlob> blobs = imageBlobRepository.lockUnreferenced(
+                        LocalDateTime.now().minusMinutes(gcGraceMinutes), SWEEP_BATCH_SIZE);
+                blobs.forEach(this::deleteFiles);
+                imageBlobRepository.deleteAllInBatch(blobs);
+                return blobs.size();
+            });
+            total += deleted != null ? deleted : 0;
+        } while (deleted != null && deleted == SWEEP_BATCH_SIZE);
+
+        if (total > 0) {
+            log.info("Image blob sweep removed {} unreferenced blobs", total);
+        }
+    }
+
+    // 相同内容的头像已存在时直接复用，只删除临时文件
+    private void moveAvatar(Path tmp, Path target) {
+        try {
+            if (!Files.exists(target)) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            log.error("Failed to move avatar into place: {}", target, e);
+        } finally {
+            deleteQuietly(tmp);
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}", path, e);
+        }
+    }
+
+    private void deleteFiles(ImageBlob blob) {
+        try {
+            if (blob.getKind() == ImageBlob.BlobKind.ITEM_IMAGE) {
+                for (int size : variantSizes) {
+                    Files.deleteIfExists(variantPath(blob.getStorageKey(), size));
+                }
+            } else {
+                Files.deleteIfExists(Paths.get(uploadPath, blob.getStorageKey()));
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete image blob {}", blob.getStorageKey(), e);
+        }
+    }
+
+    private String copyAndHash(MultipartFile file, Path target) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private String extension(String filename) {
+        if (filename == null) return ".jpg";
+        int dotIndex = filename.lastIndexOf('.');
+        String ext = dotIndex > 0 ? filename.substring(dotIndex).toLowerCase() : "";
+        return EXTENSION.matcher(ext).matches() ? ext : ".jpg";
+    }
+
+    /**
+     * 暂存结果：内容哈希（最终文件名）和本次上传的暂存文件名
+     */
+    public record StagedFile(String hash, String name) {}
+}
@@ -0,0 +1,309 @@
+package com.barter.service;
+
+import com.barter.entity.Item;
+import com.barter.repository.ItemRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 物品搜索索引（进程内倒排索引）
+ * 中日韩文字按单字 + 二元组切词，英文/数字按单词切词并支持前缀匹配
+ * 与原来的 LIKE '%关键词%' 不同：英文/数字只匹配单词开头（"cam" 能搜到 camera，"mera" 搜不到），
+ * 多个关键词要求都命中但不要求相邻；中日韩文字按二元组匹配，效果接近子串匹配
+ * 标题命中权重高于描述，启动时全量构建，物品变更时在事务提交后增量更新，并定期全量重建
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ItemSearchIndex {
+
+    private static final int TITLE_WEIGHT = 3;
+    private static final int DESCRIPTION_WEIGHT = 1;
+    private static final int REBUILD_BATCH_SIZE = 500;
+
+    private final ItemRepository itemRepository;
+
+    private volatile Index index = new Index();
+
+    // 全量重建期间发生的增量变更，重建完成后重放到新索引
+    private List<Op> pendingOps;
+
+    @PostConstruct
+    public void init() {
+        rebuild();
+    }
+
+    /**
+     * 定期全量重建，修正其他节点写入等原因造成的偏差
+     */
+    @Scheduled(initialDelayString = "${search.item-index.rebuild-interval-ms:600000}",
+               fixedDelayString = "${search.item-index.rebuild-interval-ms:600000}")
+    public void rebuild() {
+        synchronized (this) {
+            pendingOps = new ArrayList<>();
+        }
+
+        Index fresh = new Index();
+        long afterId = 0;
+        List<Item> batch;
+        do {
+            batch = itemRepository.findBatchAfterId(afterId, PageRequest.of(0, REBUILD_BATCH_SIZE));
+            for (Item item : batch) {
+                if (item.getStatus() != Item.ItemStatus.REMOVED) {
+                    fresh.put(toDoc(item));
+                }
+                afterId = item.getId();
+            }
+        } while (batch.size() == REBUILD_BATCH_SIZE);
+
+        synchronized (this) {
+            for (Op op : pendingOps) {
+                fresh.apply(op);
+            }
+            pendingOps = null;
+            index = fresh;
+        }
+        log.info("Item search index rebuilt: {} items", fresh.docs.size());
+    }
+
+    /**
+     * 新增或更新物品索引（已下架的物品会被移除）
+     */
+    public void index(Item item) {
+        if (item.getStatus() == Item.ItemStatus.REMOVED) {
+            applyAfterCommit(new Op(item.getId(), null));
+        } else {
+            applyAfterCommit(new Op(item.getId(), toDoc(item)));
+        }
+    }
+
+    public void remove(Long itemId) {
+        applyAfterCommit(new Op(itemId, null));
+    }
+
+    /**
+     * 搜索物品，返回按相关度排序的物品 ID
+     * @param category 分类，null 表示不限
+     * @param condition 成色，null 表示不限
+     * @param status 状态，null 表示不限
+     */
+    public SearchResult search(String keyword, String category, Item.ItemCondition condition,
+                               Item.ItemStatus status, int offset, int limit) {
+        List<String> terms = tokenize(keyword, true);
+        if (terms.isEmpty()) {
+            return new SearchResult(List.of(), 0);
+        }
+
+        Index current = index;
+        Map<Long, Integer> scores = null;
+        for (String term : new LinkedHashSet<>(terms)) {
+            // match 返回的是快照，不受并发的增量更新影响
+            Map<Long, Integer> matches = current.match(term);
+            if (scores == null) {
+                scores = new HashMap<>(matches);
+            } else {
+                scores.keySet().retainAll(matches.keySet());
+                for (Map.Entry<Long, Integer> e : scores.entrySet()) {
+                    e.setValue(e.getValue() + matches.get(e.getKey()));
+                }
+            }
+            if (scores.isEmpty()) {
+                return new SearchResult(List.of(), 0);
+            }
+        }
+
+        Map<Long, Integer> finalScores = scores;
+        List<Doc> hits = new ArrayList<>();
+        for (Long id : finalScores.keySet()) {
+            Doc doc = current.docs.get(id);
+            if (doc == null) continue;
+            if (category != null && !category.equals(doc.category())) continue;
+            if (condition != null && condition != doc.condition()) continue;
+            if (status != null && status != doc.status()) continue;
+            hits.add(doc);
+        }
+
+        hits.sort(Comparator.<Doc>comparingInt(d -> finalScores.get(d.id())).reversed()
+                .thenComparing(Doc::createdAt, Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(Doc::id, Comparator.reverseOrder()));
+
+        List<Long> ids = hits.stream()
+                .skip(offset)
+                .limit(limit)
+                .map(Doc::id)
+                .toList();
+        return new SearchResult(ids, hits.size());
+    }
+
+    private void applyAfterCommit(Op op) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(op);
+                }
+            });
+        } else {
+            apply(op);
+        }
+    }
+
+    private synchronized void apply(Op op) {
+        index.apply(op);
+        if (pendingOps != null) {
+            pendingOps.add(op);
+        }
+    }
+
+    private Doc toDoc(Item item) {
+        Map<String, Integer> terms = new HashMap<>();
+        for (String term : tokenize(item.getTitle(), false)) {
+            terms.put(term, TITLE_WEIGHT);
+        }
+        for (String term : tokenize(item.getDescription(), false)) {
+            terms.merge(term, DESCRIPTION_WEIGHT, (a, b) -> a >= TITLE_WEIGHT ? TITLE_WEIGHT + DESCRIPTION_WEIGHT : a);
+        }
+        return new Doc(item.getId(), item.getCategory(), item.getCondition(), item.getStatus(),
+                item.getCreatedAt(), terms);
+    }
+
+    /**
+     * 切词：中日韩文字索引时取单字和二元组，查询时取二元组（单字查询取单字）；
+     * 其他文字按字母数字连续段切分，统一转小写
+     */
+    static List<String> tokenize(String text, boolean forQuery) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+
+        String lower = text.toLowerCase();
+        StringBuilder word = new StringBuilder();
+        List<String> cjkRun = new ArrayList<>();
+        int i = 0;
+        while (i < lower.length()) {
+            int cp = lower.codePointAt(i);
+            i += Character.charCount(cp);
+            if (isCjk(cp)) {
+                flushWord(word, tokens);
+                cjkRun.add(new String(Character.toChars(cp)));
+            } else if (Character.isLetterOrDigit(cp)) {
+                flushCjk(cjkRun, tokens, forQuery);
+                word.appendCodePoint(cp);
+            } else {
+                flushWord(word, tokens);
+                flushCjk(cjkRun, tokens, forQuery);
+            }
+        }
+        flushWord(word, tokens);
+        flushCjk(cjkRun, tokens, forQuery);
+        return tokens;
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static void flushWord(StringBuilder word, List<String> tokens) {
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static void flushCjk(List<String> run, List<String> tokens, boolean forQuery) {
+        if (run.isEmpty()) {
+            return;
+        }
+        if (run.size() == 1 || !forQuery) {
+            tokens.addAll(run);
+        }
+        for (int j = 0; j + 1 < run.size(); j++) {
+            tokens.add(run.get(j) + run.get(j + 1));
+        }
+        run.clear();
+    }
+
+    public record SearchResult(List<Long> itemIds, long total) {}
+
+    private record Doc(Long id, String category, Item.ItemCondition condition, Item.ItemStatus status,
+                       LocalDateTime createdAt, Map<String, Integer> terms) {}
+
+    // doc 为 null 表示移除
+    private record Op(Long itemId, Doc doc) {}
+
+    private static class Index {
+        final Map<Long, Doc> docs = new ConcurrentHashMap<>();
+        // 词 -> (物品 ID -> 权重)
+        final ConcurrentNavigableMap<String, Map<Long, Integer>> postings = new ConcurrentSkipListMap<>();
+
+        void apply(Op op) {
+            if (op.doc() == null) {
+                remove(op.itemId());
+            } else {
+                put(op.doc());
+            }
+        }
+
+        void put(Doc doc) {
+            remove(doc.id());
+            docs.put(doc.id(), doc);
+            for (Map.Entry<String, Integer> e : doc.terms().entrySet()) {
+                postings.computeIfAbsent(e.getKey(), k -> new ConcurrentHashMap<>()).put(doc.id(), e.getValue());
+            }
+        }
+
+        void remove(Long id) {
+            Doc old = docs.remove(id);
+            if (old == null) {
+                return;
+            }
+            for (String term : old.terms().keySet()) {
+                postings.computeIfPresent(term, (k, m) -> {
+                    m.remove(id);
+                    return m.isEmpty() ? null : m;
+                });
+            }
+        }
+
+        /**
+         * 中日韩词精确匹配，其他词按前缀匹配（展开所有以它开头的词），同一物品取最高权重
+         * 返回复制出的结果，调用方读取时不受并发的 put/remove 影响
+         */
+        Map<Long, Integer> match(String term) {
+            if (isCjk(term.codePointAt(0))) {
+                Map<Long, Integer> exact = postings.get(term);
+                return exact != null ? new HashMap<>(exact) : Map.of();
+            }
+
+            Map<Long, Integer> result = new HashMap<>();
+            for (Map<Long, Integer> m : postings.subMap(term, true, term + Character.MAX_VALUE, false).values()) {
+                for (Map.Entry<Long, Integer> e : m.entrySet()) {
+                    result.merge(e.getKey(), e.getValue(), Math::max);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -3,34 +3,27 @@ package com.barter.service;
 import com.barter.dto.ItemDto;
 import com.barter.entity.Item;
 import com.barter.entity.ItemImage;
-import com.barter.entity.ItemWish;
 import com.barter.entity.User;
+import com.barter.repository.ItemImageRepository;
 import com.barter.repository.ItemRepository;
 import com.barter.repository.ItemWishRepository;
 import com.barter.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
-import java.awt.Graphics2D;
-import java.awt.image.BufferedImage;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
 
 @Service
 @RequiredArgsConstructor
@@ -38,11 +31,12 @@ public class ItemService {
 
     private final ItemRepository itemRepository;
     private final ItemWishRepository itemWishRepository;
+    private final ItemImageRepository itemImageRepository;
     private final UserRepository userRepository;
     private final SystemConfigService systemConfigService;
-
-    @Value("${upload.path}")
-    private String uploadPath;
+    private final ItemSearchIndex itemSearchIndex;
+    private final ItemViewCounter itemViewCounter;
+    private final ImageProcessingService imageProcessingService;
 
     @Transactional
     public ItemDto.ItemResponse createItem(ItemDto.CreateRequest request, User owner, List<MultipartFile> images) {
@@ -59,22 +53,13 @@ public class ItemService {
         item.setOwner(user);
         item.setImages(new ArrayList<>());
 
-        // 处理图片上传
-        if (images != null && !images.isEmpty()) {
-            int order = 0;
-            for (MultipartFile file : images) {
-                if (!file.isEmpty()) {
-                    String imageUrl = saveImage(file);
-                    ItemImage itemImage = new ItemImage();
-                    itemImage.setImageUrl(imageUrl);
-                    itemImage.setSortOrder(order++);
-                    itemImage.setItem(item);
-                    item.getImages().add(itemImage);
-                }
-            }
-        }
+        addImages(item, images);
 
         item = itemRepository.save(item);
+        itemSearchIndex.index(item);
+        if (!item.getImages().isEmpty()) {
+            imageProcessingService.submitAfterCommit(item.getId(), user.getId(), item.getImages());
+        }
         return toItemResponse(item, null);
     }
 
@@ -101,6 +86,35 @@ public class ItemService {
         item.setUpdatedAt(LocalDateTime.now());
 
         item = itemRepository.save(item);
+        itemSearchIndex.index(item);
+        return toItemResponse(item, user);
+    }
+
+    /**
+     * 替换物品的全部图片，旧图片行删除并释放引用（没有其他引用的文件由定时任务清理）
+     */
+    @Transactional
+    public ItemDto.ItemResponse replaceImages(Long id, List<MultipartFile> images, User user) {
+        Item item = itemRepository.findById(id)
+                .orElseThrow(() -> new RuntimeException("物品不存在"));
+
+        if (!item.getOwner().getId().equals(user.getId())) {
+            throw new RuntimeException("无权修改此物品");
+        }
+
+        // 只有可用状态的物品才能修改
+        if (item.getStatus() != Item.ItemStatus.AVAILABLE) {
+            throw new RuntimeException("只有可用状态的物品才能修改");
+        }
+
+        removeImages(item);
+        addImages(item, images);
+        item.setUpdatedAt(LocalDateTime.now());
+
+        item = itemRepository.save(item);
+        if (!item.getImages().isEmpty()) {
+            imageProcessingService.submitAfterCommit(item.getId(), user.getId(), item.getImages());
+        }
         return toItemResponse(item, user);
     }
 
@@ -120,11 +134,13 @@ public class ItemService {
             }
         }
 
-        // 增加浏览量
-        item.setViewCount(item.getViewCount() + 1);
-        itemRepository.save(item);
+        // 增加浏览量（内存累加，定期批量写回）
+        itemViewCounter.increment(item.getId());
 
-        return toItemResponse(item, currentUser);
+        ItemDto.ItemResponse response = toItemResponse(item, currentUser);
+        response.setViewCount((item.getViewCount() != null ? item.getViewCount() : 0)
+                + (int) itemViewCounter.pendingCount(item.getId()));
+        return response;
     }
 
     public Page<ItemDto.ItemListResponse> listItems(Pageable pageable, User currentUser) {
@@ -132,18 +148,31 @@ public class ItemService {
         return filterItemsForUser(items, currentUser);
     }
 
-    public Page<ItemDto.ItemListResponse> searchItems(String keyword, Pageable pageable, User currentUser) {
-        Page<Item> items = itemRepository.searchByKeyword(keyword, Item.ItemStatus.AVAILABLE, pageable);
-        return filterItemsForUser(items, currentUser);
+    public Page<ItemDto.ItemListResponse> searchItems(String keyword, String category, Item.ItemCondition condition,
+                                                      Pageable pageable, User currentUser) {
+        ItemSearchIndex.SearchResult result = itemSearchIndex.search(keyword, category, condition,
+                Item.ItemStatus.AVAILABLE, (int) pageable.getOffset(), pageable.getPageSize());
+
+        // 按相关度顺序取出物品，状态以数据库为准
+        Map<Long, Item> found = itemRepository.findByIdIn(result.itemIds()).stream()
+                .collect(Collectors.toMap(Item::getId, Function.identity()));
+        List<Item> ordered = result.itemIds().stream()
+                .map(found::get)
+                .filter(item -> item != null && item.getStatus() == Item.ItemStatus.AVAILABLE)
+                .collect(Collectors.toList());
+
+        return filterItemsForUser(new PageImpl<>(ordered, pageable, result.total()), currentUser);
     }
 
     private Page<ItemDto.ItemListResponse> filterItemsForUser(Page<Item> items, User currentUser) {
         boolean currentIsAdmin = currentUser != null && currentUser.getIsAdmin() != null && currentUser.getIsAdmin();
         boolean allowUserViewItems = systemConfigService.isAllowUserViewItems();
         
+        Set<Long> wishedIds = findWishedItemIds(currentUser, items.getContent());
+        
         // 管理员或开启了用户物品可见，返回全部
         if (currentIsAdmin || allowUserViewItems) {
-            return items.map(this::toItemListResponse);
+            return items.map(item -> toItemListResponse(item, wishedIds));
         }
         
         // 否则只返回管理员的物品 + 自己的物品
@@ -154,24 +183,77 @@ public class ItemService {
                     boolean isOwn = currentUserId != null && item.getOwner().getId().equals(currentUserId);
                     return ownerIsAdmin || isOwn;
                 })
-                .map(this::toItemListResponse)
+                .map(item -> toItemListResponse(item, wishedIds))
                 .collect(Collectors.toList());
         
         return new org.springframework.data.domain.PageImpl<>(filtered, items.getPageable(), filtered.size());
     }
 
     public Page<ItemDto.ItemListResponse> getMyItems(User user, Pageable pageable) {
-        return itemRepository.findByOwner(user, pageable)
-                .map(this::toItemListResponse);
+        Page<Item> items = itemRepository.findByOwner(user, pageable);
+        Set<Long> wishedIds = findWishedItemIds(user, items.getContent());
+        return items.map(item -> toItemListResponse(item, wishedIds));
     }
 
     public List<ItemDto.ItemListResponse> getMyAvailableItems(User user) {
-        return itemRepository.findByOwnerAndStatus(user, Item.ItemStatus.AVAILABLE)
-                .stream()
-                .map(this::toItemListResponse)
+        List<Item> items = itemRepository.findByOwnerAndStatus(user, Item.ItemStatus.AVAILABLE);
+        Set<Long> wishedIds = findWishedItemIds(user, items);
+        return items.stream()
+                .map(item -> toItemListResponse(item, wishedIds))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * 一次查询取出当前用户在本页物品中的收藏状态
+     */
+    /**
+     * 处理图片上传：先写入暂存目录，事务提交后异步压缩（已处理过的相同图片直接复用）
+     */
+    private void addImages(Item item, List<MultipartFile> images) {
+        if (images == null || images.isEmpty()) {
+            return;
+        }
+        imageProcessingService.checkCapacity((int) images.stream().filter(f -> !f.isEmpty()).count());
+        int order = 0;
+        for (MultipartFile file : images) {
+            if (!file.isEmpty()) {
+                ImageProcessingService.StagedImage staged = imageProcessingService.stage(file);
+                ItemImage itemImage = new ItemImage();
+                itemImage.setImageUrl(staged.imageUrl());
+                itemImage.setStatus(staged.processed() ? ItemImage.ImageStatus.READY : ItemImage.ImageStatus.PROCESSING);
+                itemImage.setStagingName(staged.stagingName());
+                if (!staged.processed()) {
+                    // 由本节点在提交后处理
+                    itemImage.setProcessingClaimedAt(LocalDateTime.now());
+                }
+                itemImage.setSortOrder(order++);
+                itemImage.setItem(item);
+                item.getImages().add(itemImage);
+            }
+        }
+    }
+
+    /**
+     * 删除物品的图片行并释放引用
+     */
+    private void removeImages(Item item) {
+        List<ItemImage> removed = new ArrayList<>(item.getImages());
+        if (removed.isEmpty()) {
+            return;
+        }
+        item.getImages().clear();
+        itemImageRepository.deleteAllInBatch(removed);
+        imageProcessingService.release(removed);
+    }
+
+    private Set<Long> findWishedItemIds(User user, List<Item> items) {
+        if (user == null || items.isEmpty()) {
+            return Set.of();
+        }
+        List<Long> itemIds = items.stream().map(Item::getId).collect(Collectors.toList());
+        return itemWishRepository.findWishedItemIds(user, itemIds);
+    }
+
     @Transactional
     public void deleteItem(Long id, User user) {
         Item item = itemRepository.findById(id)
@@ -187,87 +269,52 @@ public class ItemService {
         }
 
         item.setStatus(Item.ItemStatus.REMOVED);
+        removeImages(item);
         itemRepository.save(item);
+        itemSearchIndex.remove(item.getId());
     }
     
     @Transactional
     public ItemDto.WishResponse toggleWish(Long itemId, User user) {
-        Item item = itemRepository.findById(itemId)
-                .orElseThrow(() -> new RuntimeException("物品不存在"));
+        if (!itemRepository.existsById(itemId)) {
+            throw new RuntimeException("物品不存在");
+        }
         
         ItemDto.WishResponse response = new ItemDto.WishResponse();
         response.setItemId(itemId);
         
-        // 检查是否已收藏
-        if (itemWishRepository.existsByUserAndItem(user, item)) {
-            // 取消收藏
-            itemWishRepository.deleteByUserAndItem(user, item);
+        // 删除成功说明已收藏 -> 取消收藏；否则添加收藏
+        // 收藏数只在真正删除/插入一行时变化，并发重复请求不会重复计数
+        if (itemWishRepository.deleteByUserIdAndItemId(user.getId(), itemId) > 0) {
+            itemRepository.incrementWishCount(itemId, -1);
             response.setIsWished(false);
         } else {
-            // 添加收藏
-            ItemWish wish = new ItemWish();
-            wish.setUser(user);
-            wish.setItem(item);
-            itemWishRepository.save(wish);
+            if (itemWishRepository.insertIfAbsent(user.getId(), itemId) > 0) {
+                itemRepository.incrementWishCount(itemId, 1);
+            }
             response.setIsWished(true);
         }
         
-        response.setWishCount(itemWishRepository.countByItem(item));
+        response.setWishCount(itemRepository.findWishCountById(itemId));
         return response;
     }
     
     public Page<ItemDto.ItemListResponse> getMyWishes(User user, Pageable pageable) {
         return itemWishRepository.findByUserOrderByCreatedAtDesc(user, pageable)
-                .map(wish -> toItemListResponse(wish.getItem()));
+                .map(wish -> {
+                    ItemDto.ItemListResponse response = toItemListResponse(wish.getItem());
+                    response.setIsWished(true);
+                    return response;
+                });
     }
 
-    private String saveImage(MultipartFile file) {
-        try {
-            String filename = UUID.randomUUID().toString() + ".jpg";
-            Path path = Paths.get(uploadPath, filename);
-            Files.createDirectories(path.getParent());
-            
-            // 读取图片并压缩
-            BufferedImage originalImage = ImageIO.read(file.getInputStream());
-            if (originalImage == null) {
-                // 如果无法读取为图片，直接保存原文件
-                Files.write(path, file.getBytes());
-                return "/uploads/" + filename;
-            }
-            
-            // 限制最大尺寸为1920px
-            int maxSize = 1920;
-            int width = originalImage.getWidth();
-            int height = originalImage.getHeight();
-            
-            if (width > maxSize || height > maxSize) {
-                double scale = Math.min((double) maxSize / width, (double) maxSize / height);
-                int newWidth = (int) (width * scale);
-                int newHeight = (int) (height * scale);
-                
-                BufferedImage resizedImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-                Graphics2D g = resizedImage.createGraphics();
-                g.drawImage(originalImage, 0, 0, newWidth, newHeight, null);
-                g.dispose();
-                originalImage = resizedImage;
-            }
-            
-            // 压缩质量为85%
-            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-            ImageWriteParam param = writer.getDefaultWriteParam();
-            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-            param.setCompressionQuality(0.85f);
-            
-            try (ImageOutputStream ios = ImageIO.createImageOutputStream(path.toFile())) {
-                writer.setOutput(ios);
-                writer.write(null, new IIOImage(originalImage, null, null), param);
-            }
-            writer.dispose();
-            
-            return "/uploads/" + filename;
-        } catch (IOException e) {
-            throw new RuntimeException("图片上传失败", e);
-        }
+    /**
+     * 启动时补齐历史物品的收藏数
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void backfillWishCounts() {
+        itemRepository.backfillWishCounts();
     }
 
     private String getExtension(String filename) {
@@ -289,8 +336,12 @@ public class ItemService {
         response.setImages(item.getImages() != null ?
                 item.getImages().stream().map(ItemImage::getImageUrl).collect(Collectors.toList()) :
                 new ArrayList<>());
+        response.setImageVariants(item.getImages() != null ?
+                item.getImages().stream().map(imageProcessingService::variantUrls).collect(Collectors.toList()) :
+                new ArrayList<>());
+        response.setImageStatus(toImageStatus(item.getImages()));
         response.setViewCount(item.getViewCount());
-        response.setWishCount(itemWishRepository.countByItem(item));
+        response.setWishCount(item.getWishCount() != null ? item.getWishCount() : 0);
         response.setIsWished(currentUser != null && itemWishRepository.existsByUserAndItem(currentUser, item));
         response.setCreatedAt(item.getCreatedAt());
         
@@ -317,16 +368,40 @@ public class ItemService {
         return response;
     }
 
+    /**
+     * 汇总物品图片处理状态：有处理中的为 PROCESSING，否则有失败的为 FAILED
+     */
+    private ItemImage.ImageStatus toImageStatus(List<ItemImage> images) {
+        if (images == null) {
+            return ItemImage.ImageStatus.READY;
+        }
+        if (images.stream().anyMatch(img -> img.getStatus() == ItemImage.ImageStatus.PROCESSING)) {
+            return ItemImage.ImageStatus.PROCESSING;
+        }
+        if (images.stream().anyMatch(img -> img.getStatus() == ItemImage.ImageStatus.FAILED)) {
+            return ItemImage.ImageStatus.FAILED;
+        }
+        return ItemImage.ImageStatus.READY;
+    }
+
     public ItemDto.ItemListResponse toItemListResponse(Item item) {
+        return toItemListResponse(item, Set.of());
+    }
+
+    private ItemDto.ItemListResponse toItemListResponse(Item item, Set<Long> wishedIds) {
         ItemDto.ItemListResponse response = new ItemDto.ItemListResponse();
         response.setId(item.getId());
         response.setTitle(item.getTitle());
         response.setCategory(item.getCategory());
         response.setCondition(item.getCondition());
         response.setStatus(item.getStatus());
-        response.setCoverImage(item.getImages() != null && !item.getImages().isEmpty() ?
-                item.getImages().get(0).getImageUrl() : null);
+        if (item.getImages() != null && !item.getImages().isEmpty()) {
+            response.setCoverImage(item.getImages().get(0).getImageUrl());
+            response.setCoverImageVariants(imageProcessingService.variantUrls(item.getImages().get(0)));
+        }
         response.setOwner(toUserBrief(item.getOwner()));
+        response.setWishCount(item.getWishCount() != null ? item.getWishCount() : 0);
+        response.setIsWished(wishedIds.contains(item.getId()));
         response.setCreatedAt(item.getCreatedAt());
         return response;
     }
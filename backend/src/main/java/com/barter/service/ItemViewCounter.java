@@ -0,0 +1,78 @@
+package com.barter.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 物品浏览量计数（内存累加，定期批量写回数据库）
+ * 浏览物品不再对 items 行加锁写入，关闭应用时会把剩余计数写回
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ItemViewCounter {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    // itemId -> 尚未写回的浏览次数；累加和取出都是单个键上的原子操作，写回时取出的条目直接移除
+    private final Map<Long, Long> pending = new ConcurrentHashMap<>();
+
+    public void increment(Long itemId) {
+        increment(itemId, 1);
+    }
+
+    /**
+     * 尚未写回数据库的浏览次数
+     */
+    public long pendingCount(Long itemId) {
+        return pending.getOrDefault(itemId, 0L);
+    }
+
+    @Scheduled(fixedDelayString = "${item.view-count.flush-interval-ms:5000}")
+    public synchronized void flush() {
+        List<Object[]> batch = new ArrayList<>();
+        for (Long itemId : pending.keySet()) {
+            // 原子地取出并移除，之后的浏览重新建立条目，不会丢失也不会重复计数
+            Long count = pending.remove(itemId);
+            if (count != null && count > 0) {
+                batch.add(new Object[]{count, itemId});
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            // 整批在一个事务中写入，失败时全部回滚，放回整批计数才不会重复累加
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> jdbcTemplate.batchUpdate(
+                    "UPDATE items SET view_count = COALESCE(view_count, 0) + ? WHERE id = ?", batch));
+        } catch (Exception e) {
+            // 写回失败，计数放回下次重试
+            log.error("Failed to flush item view counts, will retry", e);
+            for (Object[] row : batch) {
+                increment((Long) row[1], (Long) row[0]);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    private void increment(Long itemId, long count) {
+        pending.merge(itemId, count, Long::sum);
+    }
+}
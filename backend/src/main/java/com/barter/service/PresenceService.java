@@ -0,0 +1,163 @@
+package com.barter.service;
+
+import com.barter.repository.ConversationRepository;
+import com.barter.repository.UserNodePresenceRepository;
+import com.barter.repository.UserRepository;
+import com.barter.websocket.ChatWebSocketHandler;
+import com.barter.websocket.UserSessionRegistry;
+import com.barter.websocket.WebSocketMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 用户在线状态
+ * 本节点的连接以 UserSessionRegistry 为准；多节点时以 user_node_presence 为准，
+ * 各节点每个心跳周期批量刷新本节点在线用户的记录，超过两个周期未刷新视为离线（节点宕机也能自动恢复）
+ * users.online / last_seen_at 只在上线/下线时写入（不在心跳中写 users 表），离线用户的最后在线时间取自这里
+ * 用户在本节点下线时其他节点仍有连接则不标记离线
+ * 上线/下线时推送 PRESENCE 给最近聊过天的用户
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PresenceService {
+
+    // 状态变化最多通知的最近会话对象数
+    private static final int MAX_NOTIFIED_PARTNERS = 200;
+    private static final int UPDATE_BATCH_SIZE = 500;
+
+    private final UserSessionRegistry sessionRegistry;
+    private final ChatWebSocketHandler webSocketHandler;
+    private final UserRepository userRepository;
+    private final ConversationRepository conversationRepository;
+    private final UserNodePresenceRepository nodePresenceRepository;
+
+    @Value("${chat.ws.heartbeat-interval-ms:30000}")
+    private long heartbeatIntervalMs;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // 状态写库和推送放到单独线程，不阻塞 WebSocket 和定时任务线程，且保持先后顺序
+    private final ExecutorService presenceExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "presence-updater");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    public void init() {
+        sessionRegistry.setPresenceListener((userId, online) ->
+                presenceExecutor.execute(() -> onPresenceChanged(userId, online)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        presenceExecutor.shutdown();
+    }
+
+    /**
+     * 批量查询在线状态
+     */
+    public Map<Long, Presence> getPresence(Collection<Long> userIds) {
+        Map<Long, Presence> result = new HashMap<>();
+        List<Long> remote = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (Long userId : new LinkedHashSet<>(userIds)) {
+            if (sessionRegistry.hasOpenSession(userId)) {
+                result.put(userId, new Presence(true, now));
+            } else {
+                remote.add(userId);
+            }
+        }
+        if (remote.isEmpty()) {
+            return result;
+        }
+
+        LocalDateTime freshAfter = freshAfter(now);
+        for (Object[] row : userRepository.findPresenceByIdIn(remote)) {
+            Long userId = (Long) row[0];
+            LocalDateTime nodeSeenAt = (LocalDateTime) row[1];
+            boolean online = nodeSeenAt != null && nodeSeenAt.isAfter(freshAfter);
+            result.put(userId, new Presence(online, online ? nodeSeenAt : (LocalDateTime) row[2]));
+        }
+        return result;
+    }
+
+    public Presence getPresence(Long userId) {
+        return getPresence(List.of(userId)).getOrDefault(userId, new Presence(false, null));
+    }
+
+    /**
+     * 刷新本节点在线用户的在线记录（只写 user_node_presence）
+     */
+    @Scheduled(fixedDelayString = "${chat.ws.heartbeat-interval-ms:30000}")
+    public void refresh() {
+        List<Long> userIds = new ArrayList<>(sessionRegistry.onlineUserIds());
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < userIds.size(); i += UPDATE_BATCH_SIZE) {
+            nodePresenceRepository.touch(userIds.subList(i, Math.min(i + UPDATE_BATCH_SIZE, userIds.size())), nodeId, now);
+        }
+        nodePresenceRepository.deleteStale(freshAfter(now));
+    }
+
+    private LocalDateTime freshAfter(LocalDateTime now) {
+        return now.minus(Duration.ofMillis(heartbeatIntervalMs * 2));
+    }
+
+    private void onPresenceChanged(Long userId, boolean online) {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            if (online) {
+                nodePresenceRepository.touch(List.of(userId), nodeId, now);
+            } else {
+                nodePresenceRepository.remove(userId, nodeId);
+                // 其他节点还有连接时用户仍在线，不写离线也不推送
+                if (nodePresenceRepository.existsOnOtherNode(userId, nodeId, freshAfter(now))) {
+                    return;
+                }
+            }
+            userRepository.updatePresence(List.of(userId), online, now);
+
+            List<Long> partnerIds = conversationRepository.findPartnerIds(userId, PageRequest.of(0, MAX_NOTIFIED_PARTNERS));
+            if (partnerIds.isEmpty()) {
+                return;
+            }
+            WebSocketMessage message = WebSocketMessage.builder()
+                    .type("PRESENCE")
+                    .presence(WebSocketMessage.PresencePayload.builder()
+                            .userId(userId)
+                            .online(online)
+                            .lastSeenAt(now.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME))
+                            .build())
+                    .build();
+            webSocketHandler.sendMessageToUsers(Set.copyOf(partnerIds), message);
+        } catch (Exception e) {
+            log.error("Failed to update presence: userId={}, online={}", userId, online, e);
+        }
+    }
+
+    /**
+     * 在线状态，lastSeenAt 为最后在线时间（在线时为当前时间）
+     */
+    public record Presence(boolean online, LocalDateTime lastSeenAt) {}
+}
@@ -7,6 +7,7 @@ import com.barter.entity.User;
 import com.barter.repository.ReviewRepository;
 import com.barter.repository.TradeRequestRepository;
 import com.barter.repository.UserRepository;
+import com.barter.security.UserPrincipalCache;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -21,6 +22,7 @@ public class ReviewService {
     private final TradeRequestRepository tradeRequestRepository;
     private final UserRepository userRepository;
     private final ItemService itemService;
+    private final UserPrincipalCache userPrincipalCache;
 
     @Transactional
     public ReviewDto.ReviewResponse createReview(ReviewDto.CreateRequest request, User reviewer) {
@@ -76,6 +78,7 @@ public class ReviewService {
             user.setRating(Math.round(avgRating * 10) / 10.0);
             user.setRatingCount((int) reviews.getTotalElements());
             userRepository.save(user);
+            userPrincipalCache.evict(user.getId());
         }
     }
 
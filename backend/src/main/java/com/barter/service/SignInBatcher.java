@@ -0,0 +1,293 @@
+package com.barter.service;
+
+import com.barter.entity.User;
+import com.barter.entity.WalletTransaction;
+import com.barter.repository.UserWalletRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 签到合并写入
+ * 本节点记录当天已签到的用户和连签天数，重复签到和签到状态查询直接在内存中回答，不查库；
+ * 新的签到进入队列，由单个写线程把排队中的签到合并为一次批量 UPDATE 和一次批量插入流水（一个事务），
+ * 写库期间到达的签到进入下一批，负载低时不额外等待
+ * 内存记录只用于快速拒绝，是否已签到仍以数据库的条件更新为准（其他节点签到、重启后都不会重复加分）
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SignInBatcher {
+
+    private static final String INSERT_TRANSACTION_SQL =
+            "INSERT INTO wallet_transactions (user_id, type, points_change, balance_change, points_after, balance_after, description, created_at) " +
+            "VALUES (:userId, :type, :pointsChange, 0, :pointsAfter, :balanceAfter, :description, :createdAt)";
+
+    // 请求线程等待签到写入的最长时间
+    private static final long WAIT_TIMEOUT_SECONDS = 10;
+
+    private final UserWalletRepository walletRepository;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${wallet.sign-in.batch-size:200}")
+    private int batchSize;
+
+    @Value("${wallet.sign-in.queue-capacity:10000}")
+    private int queueCapacity;
+
+    // 当天已签到的用户 -> 连签天数，跨天时整体替换
+    private final AtomicReference<Day> day = new AtomicReference<>(new Day(LocalDate.now(), new ConcurrentHashMap<>()));
+
+    private BlockingQueue<Pending> queue;
+    private Thread writer;
+    private volatile boolean running = true;
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        writer = new Thread(this::writeLoop, "sign-in-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        writer.interrupt();
+        writer.join(TimeUnit.SECONDS.toMillis(WAIT_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * 本节点记录的今天连签天数，今天没有签到记录时返回 null
+     */
+    public Integer signedInStreak(Long userId) {
+        return signedIn(LocalDate.now()).get(userId);
+    }
+
+    /**
+     * 记录从数据库读到的今天已签到状态
+     */
+    public void recordSignedIn(Long userId, int streak) {
+        signedIn(LocalDate.now()).put(userId, streak);
+    }
+
+    /**
+     * 签到，等待所在批次提交后返回流水
+     */
+    public WalletTransaction signIn(User user) {
+        if (signedInStreak(user.getId()) != null) {
+            throw alreadySignedIn();
+        }
+        Pending pending = new Pending(user);
+        if (!queue.offer(pending)) {
+            // 队列满时在调用线程直接写入
+            write(List.of(pending));
+        }
+        try {
+            return pending.result().get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException("签到失败，请重试", e.getCause());
+        } catch (TimeoutException e) {
+            // 还没被写线程取走时撤回，确定没有签到；已取走则结果以提交为准
+            if (pending.take()) {
+                throw new RuntimeException("签到繁忙，请稍后重试");
+            }
+            throw new RuntimeException("签到处理中，请稍后刷新查看");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (pending.take()) {
+                throw new RuntimeException("签到失败，请重试");
+            }
+            throw new RuntimeException("签到处理中，请稍后刷新查看");
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Pending first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        // 停止时写完已排队的签到
+        batch.clear();
+        while (queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * 一个事务写入一批签到，提交后通知等待的请求
+     * 调用方已放弃等待（超时撤回）的签到不写入
+     */
+    private void write(List<Pending> queued) {
+        List<Pending> batch = queued.stream().filter(Pending::take).toList();
+        if (batch.isEmpty()) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        // 同一用户重复提交只处理第一次
+        Map<Long, Pending> byUser = new LinkedHashMap<>();
+        List<Pending> duplicates = new ArrayList<>();
+        for (Pending pending : batch) {
+            if (byUser.putIfAbsent(pending.user().getId(), pending) != null) {
+                duplicates.add(pending);
+            }
+        }
+
+        Map<Long, SignedIn> results;
+        try {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            results = transactionTemplate.execute(status -> signInAll(byUser, today));
+        } catch (RuntimeException e) {
+            log.error("Sign-in batch failed: size={}", batch.size(), e);
+            RuntimeException failure = new RuntimeException("签到失败，请重试");
+            batch.forEach(pending -> pending.result().completeExceptionally(failure));
+            return;
+        }
+
+        Map<Long, Integer> signedIn = signedIn(today);
+        for (Pending pending : byUser.values()) {
+            SignedIn result = results.get(pending.user().getId());
+            if (result != null) {
+                signedIn.put(pending.user().getId(), result.streak());
+                pending.result().complete(result.transaction());
+            } else {
+                pending.result().completeExceptionally(alreadySignedIn());
+            }
+        }
+        duplicates.forEach(pending -> pending.result().completeExceptionally(alreadySignedIn()));
+    }
+
+    private Map<Long, SignedIn> signInAll(Map<Long, Pending> byUser, LocalDate today) {
+        LocalDateTime now = LocalDateTime.now();
+        // 先按用户 ID 顺序锁定已有钱包，再一次创建缺少的钱包（新插入的行由本事务持有），
+        // 之后的批量 UPDATE 不再等待其他事务，与其他节点的批次不会死锁
+        List<Long> userIds = new ArrayList<>(byUser.keySet());
+        Collections.sort(userIds);
+        List<Long> locked = walletRepository.lockAll(userIds);
+        if (locked.size() < userIds.size()) {
+            walletRepository.insertAllIfAbsent(userIds, now);
+        }
+        // 没有更新到的用户今天已签到
+        List<Object[]> rows = walletRepository.signInAll(userIds, today, today.minusDays(1), now);
+        if (rows.isEmpty()) {
+            return Map.of();
+        }
+
+        List<WalletTransaction> transactions = new ArrayList<>(rows.size());
+        List<Integer> streaks = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            int streak = ((Number) row[5]).intValue();
+            // 第N天得N分
+            int points = streak;
+
+            WalletTransaction transaction = new WalletTransaction();
+            transaction.setUser(byUser.get(((Number) row[0]).longValue()).user());
+            transaction.setType(WalletTransaction.TransactionType.SIGN_IN);
+            transaction.setPointsChange(points);
+            transaction.setPointsAfter(((Number) row[1]).intValue());
+            transaction.setBalanceAfter((BigDecimal) row[3]);
+            transaction.setDescription("连续签到第" + streak + "天，获得" + points + "积分");
+            transaction.setCreatedAt(now);
+            transactions.add(transaction);
+            streaks.add(streak);
+        }
+
+        SqlParameterSource[] batch = transactions.stream()
+                .map(t -> new MapSqlParameterSource()
+                        .addValue("userId", t.getUser().getId())
+                        .addValue("type", t.getType().name())
+                        .addValue("pointsChange", t.getPointsChange())
+                        .addValue("pointsAfter", t.getPointsAfter())
+                        .addValue("balanceAfter", t.getBalanceAfter())
+                        .addValue("description", t.getDescription())
+                        .addValue("createdAt", now))
+                .toArray(SqlParameterSource[]::new);
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        namedJdbcTemplate.batchUpdate(INSERT_TRANSACTION_SQL, batch, keyHolder, new String[]{"id"});
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+
+        Map<Long, SignedIn> results = new HashMap<>();
+        for (int i = 0; i < transactions.size(); i++) {
+            WalletTransaction transaction = transactions.get(i);
+            transaction.setId(((Number) keys.get(i).get("id")).longValue());
+            results.put(transaction.getUser().getId(), new SignedIn(transaction, streaks.get(i)));
+        }
+        return results;
+    }
+
+    /**
+     * 指定日期的已签到记录；跨天时切换为新的一天（旧日期返回不保留的空表）
+     */
+    private Map<Long, Integer> signedIn(LocalDate date) {
+        Day current = day.get();
+        while (current.date().isBefore(date)) {
+            day.compareAndSet(current, new Day(date, new ConcurrentHashMap<>()));
+            current = day.get();
+        }
+        return current.date().equals(date) ? current.streaks() : new ConcurrentHashMap<>();
+    }
+
+    private RuntimeException alreadySignedIn() {
+        return new RuntimeException("今天已经签到过了");
+    }
+
+    private record Day(LocalDate date, Map<Long, Integer> streaks) {}
+
+    private record Pending(User user, CompletableFuture<WalletTransaction> result, AtomicBoolean taken) {
+        Pending(User user) {
+            this(user, new CompletableFuture<>(), new AtomicBoolean());
+        }
+
+        // 写线程取走或调用方撤回，只有先到的一方成功
+        boolean take() {
+            return taken.compareAndSet(false, true);
+        }
+    }
+
+    private record SignedIn(WalletTransaction transaction, int streak) {}
+}
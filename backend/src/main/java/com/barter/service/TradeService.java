@@ -24,6 +24,7 @@ public class TradeService {
     private final CreditService creditService;
     private final WalletService walletService;
     private final TradeDepositRepository tradeDepositRepository;
+    private final ItemSearchIndex itemSearchIndex;
 
     @Transactional
     public TradeDto.TradeResponse createTradeRequest(TradeDto.CreateRequest request, User requester) {
@@ -116,6 +117,8 @@ public class TradeService {
                     // 将相关物品标记为交换中
                     tradeRequest.getTargetItem().setStatus(Item.ItemStatus.PENDING);
                     tradeRequest.getOfferedItem().setStatus(Item.ItemStatus.PENDING);
+                    itemSearchIndex.index(tradeRequest.getTargetItem());
+                    itemSearchIndex.index(tradeRequest.getOfferedItem());
                 }
                 break;
 
@@ -342,6 +345,8 @@ public class TradeService {
         // 将物品标记为已交换
         targetItem.setStatus(Item.ItemStatus.TRADED);
         offeredItem.setStatus(Item.ItemStatus.TRADED);
+        itemSearchIndex.index(targetItem);
+        itemSearchIndex.index(offeredItem);
         
         tradeRequest.setStatus(TradeRequest.TradeStatus.COMPLETED);
         
@@ -393,6 +398,8 @@ public class TradeService {
         if (currentStatus != TradeRequest.TradeStatus.PENDING) {
             tradeRequest.getTargetItem().setStatus(Item.ItemStatus.AVAILABLE);
             tradeRequest.getOfferedItem().setStatus(Item.ItemStatus.AVAILABLE);
+            itemSearchIndex.index(tradeRequest.getTargetItem());
+            itemSearchIndex.index(tradeRequest.getOfferedItem());
         }
         
         // 远程交易且已支付保证金，没收违约方保证金
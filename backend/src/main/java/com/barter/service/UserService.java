@@ -11,21 +11,16 @@ import com.barter.repository.LoginRecordRepository;
 import com.barter.repository.TradeRequestRepository;
 import com.barter.repository.UserRatingRepository;
 import com.barter.repository.UserRepository;
+import com.barter.security.UserPrincipalCache;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 @Service
@@ -39,9 +34,8 @@ public class UserService {
     private final UserRatingRepository userRatingRepository;
     private final PasswordEncoder passwordEncoder;
     private final CreditService creditService;
-
-    @Value("${upload.path}")
-    private String uploadPath;
+    private final UserPrincipalCache userPrincipalCache;
+    private final ImageStorageService imageStorageService;
 
     public UserDto.ProfileResponse getProfile(Long userId) {
         User user = userRepository.findById(userId)
@@ -110,6 +104,7 @@ public class UserService {
         user.setRating(avgRating != null ? avgRating : 5.0);
         user.setRatingCount(count != null ? count : 0);
         userRepository.save(user);
+        userPrincipalCache.evict(user.getId());
     }
 
     public UserDto.PublicProfileResponse getAdminUser(User currentUser) {
@@ -122,12 +117,15 @@ public class UserService {
 
     @Transactional
     public UserDto.ProfileResponse updateProfile(UserDto.UpdateProfileRequest request, User user) {
+        // 认证得到的用户可能来自缓存，重新加载后再修改，避免用旧快照覆盖其他字段
+        user = reload(user);
         if (request.getNickname() != null) user.setNickname(request.getNickname());
         if (request.getPhone() != null) user.setPhone(request.getPhone());
         if (request.getBio() != null) user.setBio(request.getBio());
         user.setUpdatedAt(LocalDateTime.now());
 
         user = userRepository.save(user);
+        userPrincipalCache.evict(user.getId());
         return toProfileResponse(user);
     }
 
@@ -137,11 +135,15 @@ public class UserService {
             throw new RuntimeException("请选择图片");
         }
 
-        String avatarUrl = saveAvatar(file);
+        user = reload(user);
+        String oldAvatar = user.getAvatar();
+        String avatarUrl = imageStorageService.storeAvatar(file);
         user.setAvatar(avatarUrl);
         user.setUpdatedAt(LocalDateTime.now());
 
         user = userRepository.save(user);
+        imageStorageService.releaseAvatar(oldAvatar);
+        userPrincipalCache.evict(user.getId());
         return toProfileResponse(user);
     }
 
@@ -160,10 +162,12 @@ public class UserService {
         dbUser.setPassword(passwordEncoder.encode(request.getNewPassword()));
         dbUser.setUpdatedAt(LocalDateTime.now());
         userRepository.save(dbUser);
+        userPrincipalCache.evict(dbUser.getId());
     }
 
     @Transactional
     public UserDto.UserSettings updateSettings(UserDto.UpdateSettingsRequest request, User user) {
+        user = reload(user);
         if (request.getShowPhoneToOthers() != null) {
             user.setShowPhoneToOthers(request.getShowPhoneToOthers());
         }
@@ -181,30 +185,18 @@ public class UserService {
         }
         user.setUpdatedAt(LocalDateTime.now());
         user = userRepository.save(user);
+        userPrincipalCache.evict(user.getId());
         
         return toUserSettings(user);
     }
 
-    public UserDto.UserSettings getSettings(User user) {
-        return toUserSettings(user);
-    }
-
-    private String saveAvatar(MultipartFile file) {
-        try {
-            String filename = "avatar_" + UUID.randomUUID().toString() + getExtension(file.getOriginalFilename());
-            Path path = Paths.get(uploadPath, "avatars", filename);
-            Files.createDirectories(path.getParent());
-            Files.write(path, file.getBytes());
-            return "/uploads/avatars/" + filename;
-        } catch (IOException e) {
-            throw new RuntimeException("头像上传失败", e);
-        }
+    private User reload(User user) {
+        return userRepository.findById(user.getId())
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
     }
 
-    private String getExtension(String filename) {
-        if (filename == null) return ".jpg";
-        int dotIndex = filename.lastIndexOf('.');
-        return dotIndex > 0 ? filename.substring(dotIndex) : ".jpg";
+    public UserDto.UserSettings getSettings(User user) {
+        return toUserSettings(user);
     }
 
     private UserDto.ProfileResponse toProfileResponse(User user) {
@@ -0,0 +1,157 @@
+package com.barter.service;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * 对账用的按用户累计值：userId -> (积分, 冻结积分, 现金分, 冻结现金分)
+ * 开放寻址 + 平行 long 数组，不装箱，每个用户约 40 字节；clear 后保留容量，分段对账时重复使用
+ * 用户 ID 都大于 0，key 为 0 表示空槽
+ */
+final class WalletLedgerTotals {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private long[] points;
+    private long[] frozenPoints;
+    private long[] balanceCents;
+    private long[] frozenBalanceCents;
+    private boolean[] seen;
+    private int mask;
+    private int size;
+
+    WalletLedgerTotals(int expectedUsers) {
+        allocate(tableSizeFor(expectedUsers));
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0L);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 累加一条流水的变化
+     */
+    void add(long userId, long pointsDelta, long frozenPointsDelta, long balanceDelta, long frozenBalanceDelta) {
+        int i = slot(userId);
+        points[i] += pointsDelta;
+        frozenPoints[i] += frozenPointsDelta;
+        balanceCents[i] += balanceDelta;
+        frozenBalanceCents[i] += frozenBalanceDelta;
+    }
+
+    /**
+     * @return 槽位下标，不存在时返回 -1
+     */
+    int indexOf(long userId) {
+        for (int i = hash(userId) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == userId) {
+                return i;
+            }
+            if (keys[i] == 0L) {
+                return -1;
+            }
+        }
+    }
+
+    long userId(int index) {
+        return keys[index];
+    }
+
+    long points(int index) {
+        return points[index];
+    }
+
+    long frozenPoints(int index) {
+        return frozenPoints[index];
+    }
+
+    long balanceCents(int index) {
+        return balanceCents[index];
+    }
+
+    long frozenBalanceCents(int index) {
+        return frozenBalanceCents[index];
+    }
+
+    void markSeen(int index) {
+        seen[index] = true;
+    }
+
+    /**
+     * 遍历没有 markSeen 的用户（有流水但没有钱包）
+     */
+    void forEachUnseen(IntConsumer action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0L && !seen[i]) {
+                action.accept(i);
+            }
+        }
+    }
+
+    private int slot(long userId) {
+        int i = hash(userId) & mask;
+        while (keys[i] != 0L) {
+            if (keys[i] == userId) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size + 1 > keys.length * LOAD_FACTOR) {
+            grow();
+            return slot(userId);
+        }
+        keys[i] = userId;
+        points[i] = 0;
+        frozenPoints[i] = 0;
+        balanceCents[i] = 0;
+        frozenBalanceCents[i] = 0;
+        seen[i] = false;
+        size++;
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldPoints = points;
+        long[] oldFrozenPoints = frozenPoints;
+        long[] oldBalance = balanceCents;
+        long[] oldFrozenBalance = frozenBalanceCents;
+        allocate(oldKeys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0L) {
+                int i = slot(oldKeys[j]);
+                points[i] = oldPoints[j];
+                frozenPoints[i] = oldFrozenPoints[j];
+                balanceCents[i] = oldBalance[j];
+                frozenBalanceCents[i] = oldFrozenBalance[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        points = new long[capacity];
+        frozenPoints = new long[capacity];
+        balanceCents = new long[capacity];
+        frozenBalanceCents = new long[capacity];
+        seen = new boolean[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private static int tableSizeFor(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expected / LOAD_FACTOR)) - 1) << 1;
+        return Math.max(16, capacity);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
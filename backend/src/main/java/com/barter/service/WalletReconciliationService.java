@@ -0,0 +1,290 @@
+package com.barter.service;
+
+import com.barter.entity.WalletReconciliationDrift;
+import com.barter.entity.WalletReconciliationRun;
+import com.barter.entity.WalletTransaction;
+import com.barter.repository.WalletReconciliationDriftRepository;
+import com.barter.repository.WalletReconciliationRunRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 钱包对账：核对 user_wallets 的余额是否等于 wallet_transactions 按类型累计的结果
+ * 按用户 ID 分段，每段在一个可重复读的只读事务中用游标流式读取流水累加（不加载到内存），再与钱包比对，
+ * 保证流水和余额来自同一快照；每段完成后在一个事务中写入差异和检查点，中断后从检查点继续
+ * 多节点时用咨询锁保证同一时间只有一个节点在对账
+ *
+ * 各类型流水对余额的影响（积分和现金相同）：
+ * 冻结/解冻只改变冻结额（冻结记负数，冻结额增加）；没收同时减少余额和冻结额；其他类型只改变余额
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class WalletReconciliationService {
+
+    private static final String LEDGER_SQL =
+            "SELECT user_id, type, COALESCE(points_change, 0), CAST(ROUND(COALESCE(balance_change, 0) * 100) AS BIGINT) " +
+            "FROM wallet_transactions WHERE user_id BETWEEN ? AND ?";
+
+    private static final String WALLET_SQL =
+            "SELECT user_id, points, frozen_points, CAST(ROUND(balance * 100) AS BIGINT), CAST(ROUND(frozen_balance * 100) AS BIGINT) " +
+            "FROM user_wallets WHERE user_id BETWEEN ? AND ?";
+
+    private static final String MAX_USER_ID_SQL =
+            "SELECT GREATEST((SELECT COALESCE(MAX(user_id), 0) FROM user_wallets), " +
+            "(SELECT COALESCE(MAX(user_id), 0) FROM wallet_transactions))";
+
+    // 多节点互斥用的 PostgreSQL 咨询锁
+    private static final long ADVISORY_LOCK_KEY = 0x57414C4C4554L;
+
+    // 查询时最多返回的差异条数
+    private static final int MAX_DRIFTS_RETURNED = 200;
+
+    private final WalletReconciliationRunRepository runRepository;
+    private final WalletReconciliationDriftRepository driftRepository;
+    private final DataSource dataSource;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${wallet.reconciliation.user-batch-size:10000}")
+    private int userBatchSize;
+
+    @Value("${wallet.reconciliation.fetch-size:5000}")
+    private int fetchSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private JdbcTemplate ledgerJdbcTemplate;
+
+    @PostConstruct
+    public void init() {
+        ledgerJdbcTemplate = new JdbcTemplate(dataSource);
+        ledgerJdbcTemplate.setFetchSize(fetchSize);
+    }
+
+    @Scheduled(cron = "${wallet.reconciliation.cron:0 30 3 * * *}")
+    public void scheduledRun() {
+        start();
+    }
+
+    /**
+     * 在后台线程启动对账，有未完成的对账时从其检查点继续
+     * @return 本节点已有对账在运行时返回 false
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                reconcileExclusively();
+            } catch (Exception e) {
+                log.error("Wallet reconciliation failed", e);
+            } finally {
+                running.set(false);
+            }
+        }, "wallet-reconciliation");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * 最近一次对账及其差异
+     */
+    public Report getLatestReport() {
+        return runRepository.findFirstByOrderByIdDesc()
+                .map(run -> new Report(run, driftRepository.findByRunIdOrderByUserIdAsc(run.getId(), PageRequest.of(0, MAX_DRIFTS_RETURNED))))
+                .orElse(null);
+    }
+
+    public record Report(WalletReconciliationRun run, List<WalletReconciliationDrift> drifts) {}
+
+    /**
+     * 持有咨询锁期间对账，其他节点正在对账时跳过
+     */
+    private void reconcileExclusively() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            if (!advisoryLock(connection, "SELECT pg_try_advisory_lock(?)")) {
+                log.info("Wallet reconciliation is running on another node, skipped");
+                return;
+            }
+            try {
+                reconcile();
+            } finally {
+                // 连接会归还连接池，必须显式释放会话级锁
+                advisoryLock(connection, "SELECT pg_advisory_unlock(?)");
+            }
+        }
+    }
+
+    private boolean advisoryLock(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, ADVISORY_LOCK_KEY);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private void reconcile() {
+        WalletReconciliationRun run = runRepository.findFirstByStatusInOrderByIdDesc(
+                        List.of(WalletReconciliationRun.RunStatus.RUNNING, WalletReconciliationRun.RunStatus.FAILED))
+                .orElse(null);
+        if (run == null) {
+            run = new WalletReconciliationRun();
+            run.setMaxUserId(ledgerJdbcTemplate.queryForObject(MAX_USER_ID_SQL, Long.class));
+        } else {
+            log.info("Resuming wallet reconciliation {} after userId={}", run.getId(), run.getLastUserId());
+        }
+        run.setStatus(WalletReconciliationRun.RunStatus.RUNNING);
+        run.setError(null);
+        run = runRepository.save(run);
+
+        TransactionTemplate snapshotTemplate = new TransactionTemplate(transactionManager);
+        snapshotTemplate.setReadOnly(true);
+        snapshotTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        TransactionTemplate writeTemplate = new TransactionTemplate(transactionManager);
+        WalletLedgerTotals totals = new WalletLedgerTotals(userBatchSize);
+
+        try {
+            while (run.getLastUserId() < run.getMaxUserId()) {
+                long fromUserId = run.getLastUserId() + 1;
+                long toUserId = Math.min(run.getLastUserId() + userBatchSize, run.getMaxUserId());
+                Long runId = run.getId();
+                RangeResult result = snapshotTemplate.execute(status -> checkRange(runId, fromUserId, toUserId, totals));
+
+                run.setLastUserId(toUserId);
+                run.setWalletsChecked(run.getWalletsChecked() + result.wallets());
+                run.setTransactionsScanned(run.getTransactionsScanned() + result.transactions());
+                run.setDriftCount(run.getDriftCount() + result.drifts().size());
+                WalletReconciliationRun checkpoint = run;
+                run = writeTemplate.execute(status -> {
+                    driftRepository.saveAll(result.drifts());
+                    return runRepository.save(checkpoint);
+                });
+            }
+            run.setStatus(WalletReconciliationRun.RunStatus.COMPLETED);
+            run.setFinishedAt(LocalDateTime.now());
+            runRepository.save(run);
+            if (run.getDriftCount() > 0) {
+                log.warn("Wallet reconciliation {} found {} drifted wallets ({} wallets, {} transactions checked)",
+                        run.getId(), run.getDriftCount(), run.getWalletsChecked(), run.getTransactionsScanned());
+            } else {
+                log.info("Wallet reconciliation {} completed: {} wallets, {} transactions, no drift",
+                        run.getId(), run.getWalletsChecked(), run.getTransactionsScanned());
+            }
+        } catch (RuntimeException e) {
+            run.setStatus(WalletReconciliationRun.RunStatus.FAILED);
+            String message = String.valueOf(e.getMessage());
+            run.setError(message.length() > 500 ? message.substring(0, 500) : message);
+            runRepository.save(run);
+            throw e;
+        }
+    }
+
+    /**
+     * 核对 [fromUserId, toUserId] 范围内的钱包，需在同一快照（可重复读事务）中执行
+     */
+    private RangeResult checkRange(Long runId, long fromUserId, long toUserId, WalletLedgerTotals totals) {
+        totals.clear();
+        long[] transactions = new long[1];
+        ledgerJdbcTemplate.query(LEDGER_SQL, (RowCallbackHandler) rs -> {
+            applyTransaction(totals, rs.getLong(1), rs.getString(2), rs.getLong(3), rs.getLong(4));
+            transactions[0]++;
+        }, fromUserId, toUserId);
+
+        List<WalletReconciliationDrift> drifts = new ArrayList<>();
+        long[] wallets = new long[1];
+        ledgerJdbcTemplate.query(WALLET_SQL, (RowCallbackHandler) rs -> {
+            long userId = rs.getLong(1);
+            long points = rs.getLong(2);
+            long frozenPoints = rs.getLong(3);
+            long balance = rs.getLong(4);
+            long frozenBalance = rs.getLong(5);
+            wallets[0]++;
+
+            int index = totals.indexOf(userId);
+            long expectedPoints = 0;
+            long expectedFrozenPoints = 0;
+            long expectedBalance = 0;
+            long expectedFrozenBalance = 0;
+            if (index >= 0) {
+                totals.markSeen(index);
+                expectedPoints = totals.points(index);
+                expectedFrozenPoints = totals.frozenPoints(index);
+                expectedBalance = totals.balanceCents(index);
+                expectedFrozenBalance = totals.frozenBalanceCents(index);
+            }
+            if (expectedPoints != points || expectedFrozenPoints != frozenPoints
+                    || expectedBalance != balance || expectedFrozenBalance != frozenBalance) {
+                drifts.add(drift(runId, userId, true,
+                        expectedPoints, points, expectedFrozenPoints, frozenPoints,
+                        expectedBalance, balance, expectedFrozenBalance, frozenBalance));
+            }
+        }, fromUserId, toUserId);
+
+        // 有流水但没有钱包
+        totals.forEachUnseen(index -> drifts.add(drift(runId, totals.userId(index), false,
+                totals.points(index), 0, totals.frozenPoints(index), 0,
+                totals.balanceCents(index), 0, totals.frozenBalanceCents(index), 0)));
+
+        return new RangeResult(wallets[0], transactions[0], drifts);
+    }
+
+    private void applyTransaction(WalletLedgerTotals totals, long userId, String type, long points, long cents) {
+        switch (WalletTransaction.TransactionType.valueOf(type)) {
+            // 冻结记为负数（可用减少、冻结增加），解冻记为正数
+            case DEPOSIT_FREEZE, DEPOSIT_UNFREEZE -> totals.add(userId, 0, -points, 0, -cents);
+            // 没收已冻结的保证金，余额和冻结额同时减少
+            case DEPOSIT_FORFEIT -> totals.add(userId, points, points, cents, cents);
+            default -> totals.add(userId, points, 0, cents, 0);
+        }
+    }
+
+    private WalletReconciliationDrift drift(Long runId, long userId, boolean walletExists,
+                                            long expectedPoints, long actualPoints,
+                                            long expectedFrozenPoints, long actualFrozenPoints,
+                                            long expectedBalance, long actualBalance,
+                                            long expectedFrozenBalance, long actualFrozenBalance) {
+        WalletReconciliationDrift drift = new WalletReconciliationDrift();
+        drift.setRunId(runId);
+        drift.setUserId(userId);
+        drift.setWalletExists(walletExists);
+        drift.setExpectedPoints(expectedPoints);
+        drift.setActualPoints(actualPoints);
+        drift.setExpectedFrozenPoints(expectedFrozenPoints);
+        drift.setActualFrozenPoints(actualFrozenPoints);
+        drift.setExpectedBalance(BigDecimal.valueOf(expectedBalance, 2));
+        drift.setActualBalance(BigDecimal.valueOf(actualBalance, 2));
+        drift.setExpectedFrozenBalance(BigDecimal.valueOf(expectedFrozenBalance, 2));
+        drift.setActualFrozenBalance(BigDecimal.valueOf(actualFrozenBalance, 2));
+        return drift;
+    }
+
+    private record RangeResult(long wallets, long transactions, List<WalletReconciliationDrift> drifts) {}
+}
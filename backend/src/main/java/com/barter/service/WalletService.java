@@ -5,93 +5,124 @@ import com.barter.entity.UserWallet;
 import com.barter.entity.WalletTransaction;
 import com.barter.repository.UserWalletRepository;
 import com.barter.repository.WalletTransactionRepository;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * 钱包
+ * 余额变动都是带条件的原子 UPDATE（见 UserWalletRepository），流水按更新返回的余额记录，与余额变动在同一事务中写入
+ * 读到的钱包在当前 HTTP 请求内缓存，同一请求多次获取只查一次库；余额变动后清除缓存
+ */
 @Service
 @RequiredArgsConstructor
 public class WalletService {
 
     private final UserWalletRepository walletRepository;
     private final WalletTransactionRepository transactionRepository;
+    private final EntityManager entityManager;
+    private final SignInBatcher signInBatcher;
+
+    private static final String REQUEST_CACHE_ATTRIBUTE = WalletService.class.getName() + ".wallets";
+    private static final int MAX_HISTORY_LIMIT = 100;
 
     // 签到积分：第1天1分，第2天2分...最高7分封顶
     // 连签积分不封顶
 
     /**
      * 获取或创建钱包
+     * 先查询，不存在时 INSERT ... ON CONFLICT DO NOTHING 创建；并发创建冲突时重新查询对方创建的钱包
      */
     @Transactional
     public UserWallet getOrCreateWallet(User user) {
-        return walletRepository.findByUser(user)
-                .orElseGet(() -> {
-                    UserWallet wallet = new UserWallet();
-                    wallet.setUser(user);
-                    return walletRepository.save(wallet);
-                });
+        Map<Long, UserWallet> cache = requestCache();
+        UserWallet wallet = cache != null ? cache.get(user.getId()) : null;
+        if (wallet != null) {
+            return wallet;
+        }
+        wallet = walletRepository.findByUserId(user.getId())
+                .or(() -> walletRepository.insertIfAbsent(user.getId(), LocalDateTime.now()))
+                .or(() -> walletRepository.findByUserId(user.getId()))
+                .orElseThrow(() -> new RuntimeException("钱包创建失败，请重试"));
+        if (cache != null) {
+            cache.put(user.getId(), wallet);
+        }
+        return wallet;
     }
 
     /**
-     * 签到
+     * 当前请求的钱包缓存，不在 HTTP 请求中（定时任务、异步线程）时返回 null
      */
-    @Transactional
-    public WalletTransaction signIn(User user) {
-        UserWallet wallet = getOrCreateWallet(user);
-        LocalDate today = LocalDate.now();
-        LocalDate lastSignIn = wallet.getLastSignInDate();
-        
-        // 检查今天是否已签到
-        if (lastSignIn != null && lastSignIn.equals(today)) {
-            throw new RuntimeException("今天已经签到过了");
+    @SuppressWarnings("unchecked")
+    private Map<Long, UserWallet> requestCache() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
         }
-        
-        // 计算连签天数
-        int streak = wallet.getSignInStreak();
-        if (lastSignIn != null && lastSignIn.equals(today.minusDays(1))) {
-            // 连续签到
-            streak = streak + 1;
-        } else {
-            // 断签，重新计算
-            streak = 1;
+        Map<Long, UserWallet> cache = (Map<Long, UserWallet>) attributes.getAttribute(REQUEST_CACHE_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (cache == null) {
+            cache = new HashMap<>();
+            attributes.setAttribute(REQUEST_CACHE_ATTRIBUTE, cache, RequestAttributes.SCOPE_REQUEST);
         }
-        
-        // 计算积分：第N天得N分，最高7分
-        int points = streak;
-        
-        wallet.setPoints(wallet.getPoints() + points);
-        wallet.setSignInStreak(streak);
-        wallet.setLastSignInDate(today);
-        wallet.setUpdatedAt(LocalDateTime.now());
-        walletRepository.save(wallet);
+        return cache;
+    }
 
-        // 记录流水
-        WalletTransaction transaction = new WalletTransaction();
-        transaction.setUser(user);
-        transaction.setType(WalletTransaction.TransactionType.SIGN_IN);
-        transaction.setPointsChange(points);
-        transaction.setPointsAfter(wallet.getPoints());
-        transaction.setBalanceAfter(wallet.getBalance());
-        transaction.setDescription("连续签到第" + streak + "天，获得" + points + "积分");
-        return transactionRepository.save(transaction);
+    /**
+     * 余额原子更新后调用：清除请求缓存，并把已加载的实体移出持久化上下文，之后同一事务再读能查到更新后的余额
+     */
+    private void evict(User user, UserWallet wallet) {
+        Map<Long, UserWallet> cache = requestCache();
+        if (cache != null) {
+            cache.remove(user.getId());
+        }
+        if (entityManager.contains(wallet)) {
+            entityManager.detach(wallet);
+        }
+    }
+
+    /**
+     * 签到，合并到批量写入中执行（见 SignInBatcher）
+     */
+    public WalletTransaction signIn(User user) {
+        WalletTransaction transaction = signInBatcher.signIn(user);
+        Map<Long, UserWallet> cache = requestCache();
+        if (cache != null) {
+            cache.remove(user.getId());
+        }
+        return transaction;
     }
     
     /**
-     * 获取今日签到信息
+     * 获取今日签到信息，本节点记录了今天已签到时不查库
      */
     public SignInInfo getSignInInfo(User user) {
+        Integer signedStreak = signInBatcher.signedInStreak(user.getId());
+        if (signedStreak != null) {
+            return new SignInInfo(true, signedStreak, 0);
+        }
+
         UserWallet wallet = getOrCreateWallet(user);
         LocalDate today = LocalDate.now();
         LocalDate lastSignIn = wallet.getLastSignInDate();
         
         boolean signedToday = lastSignIn != null && lastSignIn.equals(today);
         int streak = wallet.getSignInStreak();
+        if (signedToday) {
+            signInBatcher.recordSignedIn(user.getId(), streak);
+        }
         
         // 如果昨天没签到且今天也没签，连签要重置
         if (!signedToday && (lastSignIn == null || !lastSignIn.equals(today.minusDays(1)))) {
@@ -106,6 +137,24 @@ public class WalletService {
     
     public record SignInInfo(boolean signedToday, int streak, int nextPoints) {}
 
+    /**
+     * 原子更新返回的钱包余额
+     */
+    private record Balances(int points, int frozenPoints, BigDecimal balance, BigDecimal frozenBalance) {
+        static Balances of(Object[] row) {
+            return new Balances(((Number) row[0]).intValue(), ((Number) row[1]).intValue(),
+                    (BigDecimal) row[2], (BigDecimal) row[3]);
+        }
+
+        int availablePoints() {
+            return points - frozenPoints;
+        }
+
+        BigDecimal availableBalance() {
+            return balance.subtract(frozenBalance);
+        }
+    }
+
     /**
      * 充值
      */
@@ -116,16 +165,15 @@ public class WalletService {
         }
 
         UserWallet wallet = getOrCreateWallet(user);
-        wallet.setBalance(wallet.getBalance().add(amount));
-        wallet.setUpdatedAt(LocalDateTime.now());
-        walletRepository.save(wallet);
+        Balances after = Balances.of(walletRepository.credit(user.getId(), 0, amount, LocalDateTime.now()).get(0));
+        evict(user, wallet);
 
         WalletTransaction transaction = new WalletTransaction();
         transaction.setUser(user);
         transaction.setType(WalletTransaction.TransactionType.RECHARGE);
         transaction.setBalanceChange(amount);
-        transaction.setPointsAfter(wallet.getPoints());
-        transaction.setBalanceAfter(wallet.getBalance());
+        transaction.setPointsAfter(after.points());
+        transaction.setBalanceAfter(after.balance());
         transaction.setDescription("充值 " + amount + " 元");
         return transactionRepository.save(transaction);
     }
@@ -137,21 +185,15 @@ public class WalletService {
     public void freezeDeposit(User user, int points, BigDecimal cash, Long tradeId) {
         UserWallet wallet = getOrCreateWallet(user);
 
-        // 检查余额
-        int availablePoints = wallet.getPoints() - wallet.getFrozenPoints();
-        BigDecimal availableCash = wallet.getBalance().subtract(wallet.getFrozenBalance());
-
-        if (points > availablePoints) {
-            throw new RuntimeException("积分余额不足");
+        // 条件更新：可用余额足够才冻结，并发冻结不会超额
+        List<Object[]> rows = walletRepository.freeze(user.getId(), points, cash, LocalDateTime.now());
+        if (rows.isEmpty()) {
+            // 用读到的余额判断是哪一项不足（仅用于提示）
+            int availablePoints = wallet.getPoints() - wallet.getFrozenPoints();
+            throw new RuntimeException(points > availablePoints ? "积分余额不足" : "现金余额不足");
         }
-        if (cash.compareTo(availableCash) > 0) {
-            throw new RuntimeException("现金余额不足");
-        }
-
-        wallet.setFrozenPoints(wallet.getFrozenPoints() + points);
-        wallet.setFrozenBalance(wallet.getFrozenBalance().add(cash));
-        wallet.setUpdatedAt(LocalDateTime.now());
-        walletRepository.save(wallet);
+        evict(user, wallet);
+        Balances after = Balances.of(rows.get(0));
 
         // 记录流水
         WalletTransaction transaction = new WalletTransaction();
@@ -159,8 +201,8 @@ public class WalletService {
         transaction.setType(WalletTransaction.TransactionType.DEPOSIT_FREEZE);
         transaction.setPointsChange(-points);
         transaction.setBalanceChange(cash.negate());
-        transaction.setPointsAfter(wallet.getPoints() - wallet.getFrozenPoints());
-        transaction.setBalanceAfter(wallet.getBalance().subtract(wallet.getFrozenBalance()));
+        transaction.setPointsAfter(after.availablePoints());
+        transaction.setBalanceAfter(after.availableBalance());
         transaction.setDescription("交易保证金冻结");
         transaction.setRelatedId(tradeId);
         transactionRepository.save(transaction);
@@ -172,19 +214,16 @@ public class WalletService {
     @Transactional
     public void unfreezeDeposit(User user, int points, BigDecimal cash, Long tradeId) {
         UserWallet wallet = getOrCreateWallet(user);
-
-        wallet.setFrozenPoints(Math.max(0, wallet.getFrozenPoints() - points));
-        wallet.setFrozenBalance(wallet.getFrozenBalance().subtract(cash).max(BigDecimal.ZERO));
-        wallet.setUpdatedAt(LocalDateTime.now());
-        walletRepository.save(wallet);
+        Balances after = Balances.of(walletRepository.unfreeze(user.getId(), points, cash, LocalDateTime.now()).get(0));
+        evict(user, wallet);
 
         WalletTransaction transaction = new WalletTransaction();
         transaction.setUser(user);
         transaction.setType(WalletTransaction.TransactionType.DEPOSIT_UNFREEZE);
         transaction.setPointsChange(points);
         transaction.setBalanceChange(cash);
-        transaction.setPointsAfter(wallet.getPoints() - wallet.getFrozenPoints());
-        transaction.setBalanceAfter(wallet.getBalance().subtract(wallet.getFrozenBalance()));
+        transaction.setPointsAfter(after.availablePoints());
+        transaction.setBalanceAfter(after.availableBalance());
         transaction.setDescription("交易保证金退还");
         transaction.setRelatedId(tradeId);
         transactionRepository.save(transaction);
@@ -198,19 +237,19 @@ public class WalletService {
         UserWallet violatorWallet = getOrCreateWallet(violator);
         UserWallet receiverWallet = getOrCreateWallet(receiver);
 
-        // 从违约方扣除
-        violatorWallet.setPoints(Math.max(0, violatorWallet.getPoints() - points));
-        violatorWallet.setFrozenPoints(Math.max(0, violatorWallet.getFrozenPoints() - points));
-        violatorWallet.setBalance(violatorWallet.getBalance().subtract(cash).max(BigDecimal.ZERO));
-        violatorWallet.setFrozenBalance(violatorWallet.getFrozenBalance().subtract(cash).max(BigDecimal.ZERO));
-        violatorWallet.setUpdatedAt(LocalDateTime.now());
-        walletRepository.save(violatorWallet);
-
-        // 转给对方
-        receiverWallet.setPoints(receiverWallet.getPoints() + points);
-        receiverWallet.setBalance(receiverWallet.getBalance().add(cash));
-        receiverWallet.setUpdatedAt(LocalDateTime.now());
-        walletRepository.save(receiverWallet);
+        // 两个钱包按用户 ID 顺序加锁，相反方向的并发违约处理不会死锁
+        LocalDateTime now = LocalDateTime.now();
+        Balances violatorAfter;
+        Balances receiverAfter;
+        if (violator.getId() < receiver.getId()) {
+            violatorAfter = Balances.of(walletRepository.deductFrozen(violator.getId(), points, cash, now).get(0));
+            receiverAfter = Balances.of(walletRepository.credit(receiver.getId(), points, cash, now).get(0));
+        } else {
+            receiverAfter = Balances.of(walletRepository.credit(receiver.getId(), points, cash, now).get(0));
+            violatorAfter = Balances.of(walletRepository.deductFrozen(violator.getId(), points, cash, now).get(0));
+        }
+        evict(violator, violatorWallet);
+        evict(receiver, receiverWallet);
 
         // 记录违约方流水
         WalletTransaction violatorTx = new WalletTransaction();
@@ -218,11 +257,10 @@ public class WalletService {
         violatorTx.setType(WalletTransaction.TransactionType.DEPOSIT_FORFEIT);
         violatorTx.setPointsChange(-points);
         violatorTx.setBalanceChange(cash.negate());
-        violatorTx.setPointsAfter(violatorWallet.getPoints() - violatorWallet.getFrozenPoints());
-        violatorTx.setBalanceAfter(violatorWallet.getBalance().subtract(violatorWallet.getFrozenBalance()));
+        violatorTx.setPointsAfter(violatorAfter.availablePoints());
+        violatorTx.setBalanceAfter(violatorAfter.availableBalance());
         violatorTx.setDescription("违约保证金没收");
         violatorTx.setRelatedId(tradeId);
-        transactionRepository.save(violatorTx);
 
         // 记录接收方流水
         WalletTransaction receiverTx = new WalletTransaction();
@@ -230,11 +268,11 @@ public class WalletService {
         receiverTx.setType(WalletTransaction.TransactionType.DEPOSIT_RECEIVE);
         receiverTx.setPointsChange(points);
         receiverTx.setBalanceChange(cash);
-        receiverTx.setPointsAfter(receiverWallet.getPoints());
-        receiverTx.setBalanceAfter(receiverWallet.getBalance());
+        receiverTx.setPointsAfter(receiverAfter.points());
+        receiverTx.setBalanceAfter(receiverAfter.balance());
         receiverTx.setDescription("收到违约赔偿");
         receiverTx.setRelatedId(tradeId);
-        transactionRepository.save(receiverTx);
+        transactionRepository.saveAll(List.of(violatorTx, receiverTx));
     }
 
     /**
@@ -243,16 +281,15 @@ public class WalletService {
     @Transactional
     public void addReferralReward(User referrer, User newUser, int points) {
         UserWallet wallet = getOrCreateWallet(referrer);
-        wallet.setPoints(wallet.getPoints() + points);
-        wallet.setUpdatedAt(LocalDateTime.now());
-        walletRepository.save(wallet);
+        Balances after = Balances.of(walletRepository.credit(referrer.getId(), points, BigDecimal.ZERO, LocalDateTime.now()).get(0));
+        evict(referrer, wallet);
 
         WalletTransaction transaction = new WalletTransaction();
         transaction.setUser(referrer);
         transaction.setType(WalletTransaction.TransactionType.INVITE_REWARD);
         transaction.setPointsChange(points);
-        transaction.setPointsAfter(wallet.getPoints());
-        transaction.setBalanceAfter(wallet.getBalance());
+        transaction.setPointsAfter(after.points());
+        transaction.setBalanceAfter(after.balance());
         transaction.setDescription("邀请新用户 " + newUser.getUsername() + " 注册奖励");
         transaction.setRelatedId(newUser.getId());
         transactionRepository.save(transaction);
@@ -264,4 +301,20 @@ public class WalletService {
     public Page<WalletTransaction> getTransactions(User user, Pageable pageable) {
         return transactionRepository.findByUserOrderByCreatedAtDesc(user, pageable);
     }
+
+    /**
+     * 按游标获取钱包流水（从新到旧），before 为上一页最后一条流水 ID，为空时从最新开始
+     * 多查一条用于判断是否还有更多
+     */
+    public TransactionHistory getTransactionHistory(User user, Long before, int limit) {
+        int size = Math.max(1, Math.min(limit, MAX_HISTORY_LIMIT));
+        PageRequest pageable = PageRequest.of(0, size + 1);
+        List<WalletTransaction> transactions = before != null
+                ? transactionRepository.findBefore(user.getId(), before, pageable)
+                : transactionRepository.findLatest(user.getId(), pageable);
+        boolean hasMore = transactions.size() > size;
+        return new TransactionHistory(hasMore ? transactions.subList(0, size) : transactions, hasMore);
+    }
+
+    public record TransactionHistory(List<WalletTransaction> transactions, boolean hasMore) {}
 }
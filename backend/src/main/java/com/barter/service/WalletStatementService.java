@@ -0,0 +1,249 @@
+package com.barter.service;
+
+import com.barter.entity.WalletBalanceSnapshot;
+import com.barter.repository.WalletBalanceSnapshotRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 钱包对账：每日余额快照和流水导出
+ * 导出在只读事务中用服务端游标（fetchSize）逐行读取并直接写入输出流，不把结果集加载到内存
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class WalletStatementService {
+
+    private static final String EXPORT_SQL =
+            "SELECT id, user_id, type, points_change, balance_change, points_after, balance_after, related_id, description, created_at " +
+            "FROM wallet_transactions WHERE created_at >= ? AND created_at < ?";
+
+    private static final String CSV_HEADER =
+            "id,user_id,type,points_change,balance_change,points_after,balance_after,related_id,description,created_at\n";
+
+    // 最多返回的快照天数
+    private static final int MAX_SNAPSHOT_DAYS = 366;
+
+    // 补生成漏掉的快照时最多往前追溯的天数
+    private static final int MAX_BACKFILL_DAYS = 31;
+
+    private final WalletBalanceSnapshotRepository snapshotRepository;
+    private final DataSource dataSource;
+    private final PlatformTransactionManager transactionManager;
+    private final ObjectMapper objectMapper;
+
+    @Value("${wallet.snapshot.batch-size:5000}")
+    private int snapshotBatchSize;
+
+    @Value("${wallet.export.fetch-size:1000}")
+    private int exportFetchSize;
+
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+
+    private JdbcTemplate exportJdbcTemplate;
+
+    @Getter
+    @RequiredArgsConstructor
+    public enum StatementFormat {
+        CSV(".csv", new MediaType("text", "csv", StandardCharsets.UTF_8)),
+        NDJSON(".ndjson", new MediaType("application", "x-ndjson", StandardCharsets.UTF_8));
+
+        private final String extension;
+        private final MediaType mediaType;
+
+        /**
+         * 附件下载的 Content-Disposition
+         */
+        public String attachment(String filename) {
+            return "attachment; filename=\"" + filename + extension + "\"";
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        exportJdbcTemplate = new JdbcTemplate(dataSource);
+        exportJdbcTemplate.setFetchSize(exportFetchSize);
+    }
+
+    /**
+     * 每天生成前一天的余额快照，在后台线程执行，不占用共享的定时任务线程
+     */
+    @Scheduled(cron = "${wallet.snapshot.cron:0 10 0 * * *}")
+    public void scheduledSnapshot() {
+        if (!snapshotRunning.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                snapshotMissingDays();
+            } catch (Exception e) {
+                log.error("Wallet balance snapshot failed", e);
+            } finally {
+                snapshotRunning.set(false);
+            }
+        }, "wallet-snapshot");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 从最近一次快照的下一天生成到昨天（停机等原因漏掉的日期一并补齐，最多追溯 MAX_BACKFILL_DAYS 天）
+     */
+    public void snapshotMissingDays() {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        LocalDate earliest = yesterday.minusDays(MAX_BACKFILL_DAYS - 1);
+        // 还没有任何快照时只生成昨天
+        LocalDate date = snapshotRepository.findLastSnapshotDate()
+                .map(last -> last.plusDays(1))
+                .orElse(yesterday);
+        if (date.isBefore(earliest)) {
+            date = earliest;
+        }
+        for (; !date.isAfter(yesterday); date = date.plusDays(1)) {
+            snapshot(date);
+        }
+    }
+
+    /**
+     * 生成某一天的余额快照，按用户 ID 分段，每段一个事务
+     */
+    public int snapshot(LocalDate date) {
+        LocalDateTime from = date.atStartOfDay();
+        LocalDateTime to = from.plusDays(1);
+        LocalDateTime now = LocalDateTime.now();
+        long maxUserId = snapshotRepository.findMaxWalletUserId();
+
+        int total = 0;
+        for (long start = 1; start <= maxUserId; start += snapshotBatchSize) {
+            total += snapshotRepository.snapshot(date, from, to, start, start + snapshotBatchSize - 1, now);
+        }
+        log.info("Wallet balance snapshot for {} written: {} wallets", date, total);
+        return total;
+    }
+
+    /**
+     * 用户某段日期内的每日快照（没有变动的日期没有快照）
+     */
+    public List<WalletBalanceSnapshot> getSnapshots(Long userId, LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) {
+            throw new RuntimeException("结束日期不能早于开始日期");
+        }
+        if (from.plusDays(MAX_SNAPSHOT_DAYS).isBefore(to)) {
+            throw new RuntimeException("查询范围不能超过" + MAX_SNAPSHOT_DAYS + "天");
+        }
+        return snapshotRepository.findByUserIdAndSnapshotDateBetweenOrderBySnapshotDateAsc(userId, from, to);
+    }
+
+    /**
+     * 导出 [from, to) 时间段内的流水，userId 为空时导出所有用户（对账用）
+     */
+    public void export(Long userId, LocalDateTime from, LocalDateTime to, StatementFormat format, OutputStream out) {
+        StringBuilder sql = new StringBuilder(EXPORT_SQL);
+        List<Object> args = new ArrayList<>(List.of(Timestamp.valueOf(from), Timestamp.valueOf(to)));
+        if (userId != null) {
+            sql.append(" AND user_id = ?");
+            args.add(userId);
+        }
+        sql.append(" ORDER BY created_at, id");
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        try {
+            if (format == StatementFormat.CSV) {
+                // BOM 让 Excel 按 UTF-8 打开中文说明
+                writer.write('\uFEFF');
+                writer.write(CSV_HEADER);
+            }
+            // PostgreSQL 只有在事务中（关闭自动提交）才按 fetchSize 分批读取
+            transactionTemplate.executeWithoutResult(status ->
+                    exportJdbcTemplate.query(sql.toString(), (RowCallbackHandler) rs -> writeLine(writer, format, rs), args.toArray()));
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeLine(Writer writer, StatementFormat format, ResultSet rs) throws SQLException {
+        StatementLine line = new StatementLine(
+                rs.getLong("id"),
+                rs.getLong("user_id"),
+                rs.getString("type"),
+                rs.getObject("points_change", Integer.class),
+                rs.getBigDecimal("balance_change"),
+                rs.getObject("points_after", Integer.class),
+                rs.getBigDecimal("balance_after"),
+                rs.getObject("related_id", Long.class),
+                rs.getString("description"),
+                rs.getObject("created_at", LocalDateTime.class));
+        try {
+            if (format == StatementFormat.CSV) {
+                writer.write(line.toCsv());
+            } else {
+                writer.write(objectMapper.writeValueAsString(line));
+            }
+            writer.write('\n');
+        } catch (IOException e) {
+            // 客户端中断下载时结束查询
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 导出的一条流水
+     */
+    public record StatementLine(long id, long userId, String type, Integer pointsChange, BigDecimal balanceChange,
+                                Integer pointsAfter, BigDecimal balanceAfter, Long relatedId,
+                                String description, LocalDateTime createdAt) {
+
+        String toCsv() {
+            return id + "," + userId + "," + type + "," + csv(pointsChange) + "," + csv(balanceChange) + ","
+                    + csv(pointsAfter) + "," + csv(balanceAfter) + "," + csv(relatedId) + ","
+                    + csvText(description) + "," + csv(createdAt);
+        }
+
+        private static String csv(Object value) {
+            return value != null ? value.toString() : "";
+        }
+
+        // 文本都加引号（说明中可能有逗号、引号或换行）；以公式字符开头时加前缀，避免表格软件当作公式执行
+        private static String csvText(String value) {
+            if (value == null || value.isEmpty()) {
+                return "";
+            }
+            if ("=+-@".indexOf(value.charAt(0)) >= 0) {
+                value = "'" + value;
+            }
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.barter.websocket;
+
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 跨节点的 WebSocket 推送总线
+ * 发布给某个用户的消息会送达所有节点（包括本节点），由各节点推送给本地连接
+ * 同时用于通知其他节点清除已认证用户缓存
+ * 通过 chat.broadcast.type 选择实现：memory（单节点）或 postgres（LISTEN/NOTIFY）
+ */
+public interface ChatBroadcastBus {
+
+    /**
+     * 发布推送
+     * @param userId 接收用户
+     * @param payload 已序列化的消息内容
+     */
+    void publish(Long userId, String payload);
+
+    /**
+     * 订阅推送，listener 参数为接收用户 ID 和消息内容
+     */
+    void subscribe(BiConsumer<Long, String> listener);
+
+    /**
+     * 通知其他节点清除用户缓存（不通知本节点）
+     * 在事务中发布时其他节点在事务提交后才会收到
+     */
+    void publishUserEvicted(Long userId);
+
+    /**
+     * 订阅其他节点的用户缓存清除通知
+     */
+    void subscribeUserEvicted(Consumer<Long> listener);
+}
@@ -1,35 +1,108 @@
 package com.barter.websocket;
 
 import com.barter.security.JwtTokenProvider;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.*;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * 聊天 WebSocket 处理
+ * 推送先发布到 ChatBroadcastBus，各节点再推送给本地连接，支持多实例部署和同一用户多设备在线
+ * 客户端可通过子协议 barter.cbor.v1 协商服务端推送使用 CBOR 二进制帧（客户端发送仍为 JSON 文本）
+ * 定时发送 ping，超过 chat.ws.idle-timeout-ms 没有任何消息或 pong 的连接视为半开连接并移除；
+ * 心跳使用独立线程，不受其他定时任务阻塞；心跳本身被耽误时（上一次 ping 距今过久）本轮不移除连接
+ * 重连时客户端可带上 since=最后收到的消息 ID，由 ResumeListener 补发断线期间的消息
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
-public class ChatWebSocketHandler extends TextWebSocketHandler {
+public class ChatWebSocketHandler extends TextWebSocketHandler implements SubProtocolCapable {
+
+    public static final String JSON_PROTOCOL = "barter.json.v1";
+    public static final String CBOR_PROTOCOL = "barter.cbor.v1";
 
     private final JwtTokenProvider jwtTokenProvider;
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    
-    // userId -> WebSocket session
-    private static final Map<Long, WebSocketSession> userSessions = new ConcurrentHashMap<>();
+    private final UserSessionRegistry sessionRegistry;
+    private final SessionOutboundQueues outboundQueues;
+    private final ChatBroadcastBus broadcastBus;
+    private final TypingCoalescer typingCoalescer;
+    private final ObjectMapper objectMapper;
+    private final CBORMapper cborMapper = new CBORMapper();
+
+    // 最近一次推送的帧，同一内容推送给多个用户时共用序列化结果
+    private volatile OutboundFrame lastFrame;
+
+    @Value("${chat.ws.idle-timeout-ms:90000}")
+    private long idleTimeoutMs;
+
+    @Value("${chat.ws.heartbeat-interval-ms:30000}")
+    private long heartbeatIntervalMs;
+
+    private final ScheduledExecutorService heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ws-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 上一次发送 ping 的时间
+    private long lastPingAt;
+
+    private volatile ResumeListener resumeListener;
+
+    /**
+     * 客户端带 since 参数重连
+     */
+    public interface ResumeListener {
+        void onResume(WebSocketSession session, Long userId, long sinceMessageId);
+    }
+
+    public void setResumeListener(ResumeListener resumeListener) {
+        this.resumeListener = resumeListener;
+    }
+
+    @PostConstruct
+    public void init() {
+        broadcastBus.subscribe(this::deliverToLocalSessions);
+        heartbeatScheduler.scheduleWithFixedDelay(this::heartbeat, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeatScheduler.shutdownNow();
+    }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         Long userId = extractUserIdFromSession(session);
         if (userId != null) {
-            userSessions.put(userId, session);
+            outboundQueues.open(session, CBOR_PROTOCOL.equals(session.getAcceptedProtocol()));
+            sessionRegistry.register(userId, session);
             log.info("WebSocket connected: userId={}", userId);
+
+            // 先登记再补发，补发期间的新消息也能收到（客户端按消息 ID 去重）
+            Long since = extractSinceFromSession(session);
+            ResumeListener listener = resumeListener;
+            if (since != null && since > 0 && listener != null) {
+                listener.onResume(session, userId, since);
+            }
         } else {
             log.warn("WebSocket connection rejected: no valid token");
             session.close(CloseStatus.NOT_ACCEPTABLE);
@@ -38,9 +111,10 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        Long userId = extractUserIdFromSession(session);
+        // 用连接时记录的用户 ID，token 此时可能已过期
+        Long userId = sessionRegistry.unregister(session);
+        outboundQueues.close(session);
         if (userId != null) {
-            userSessions.remove(userId);
             log.info("WebSocket disconnected: userId={}", userId);
         }
     }
@@ -48,6 +122,7 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
         // 处理客户端发送的消息（如 typing 状态）
+        sessionRegistry.touch(session);
         try {
             String payload = message.getPayload();
             log.debug("Received message: {}", payload);
@@ -58,10 +133,12 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
             if ("TYPING".equals(type) || "STOP_TYPING".equals(type)) {
                 Long targetUserId = jsonNode.has("targetUserId") ? jsonNode.get("targetUserId").asLong() : null;
                 Long conversationId = jsonNode.has("conversationId") ? jsonNode.get("conversationId").asLong() : null;
-                Long senderId = extractUserIdFromSession(session);
+                Long senderId = sessionRegistry.userIdOf(session);
                 String senderNickname = jsonNode.has("nickname") ? jsonNode.get("nickname").asText() : null;
                 
-                if (targetUserId != null && senderId != null) {
+                // 合并重复的输入状态，持续输入时按间隔限流
+                if (targetUserId != null && senderId != null
+                        && typingCoalescer.shouldForward(senderId, conversationId, "TYPING".equals(type))) {
                     // 转发 typing 状态给对方
                     WebSocketMessage wsMessage = WebSocketMessage.builder()
                             .type(type)
@@ -79,24 +156,144 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         }
     }
 
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        sessionRegistry.touch(session);
+    }
+
+    /**
+     * 心跳：移除空闲超时的连接，其余发送 ping
+     * 上一次 ping 距今超过两个心跳周期时（启动后第一次或心跳被耽误），连接没有机会回复 pong，本轮只发 ping 不按空闲移除
+     */
+    void heartbeat() {
+        try {
+            long now = System.currentTimeMillis();
+            boolean pingsCurrent = lastPingAt > 0 && now - lastPingAt <= heartbeatIntervalMs * 2;
+            lastPingAt = now;
+            long idleBefore = now - idleTimeoutMs;
+            for (WebSocketSession session : sessionRegistry.allSessions()) {
+                if (!session.isOpen() || (pingsCurrent && sessionRegistry.lastActiveAt(session) < idleBefore)) {
+                    evict(session);
+                } else {
+                    outboundQueues.send(session, OutboundFrame.PING);
+                }
+            }
+        } catch (Exception e) {
+            // 异常会终止后续调度
+            log.error("WebSocket heartbeat failed", e);
+        }
+    }
+
+    // 半开连接可能收不到关闭回调，主动移除
+    private void evict(WebSocketSession session) {
+        Long userId = sessionRegistry.unregister(session);
+        outboundQueues.close(session);
+        log.info("WebSocket evicted after idle timeout: userId={}", userId);
+        outboundQueues.closeAsync(session, CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
     @Override
     public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
         log.error("WebSocket transport error", exception);
     }
 
     /**
-     * 向指定用户推送新消息
+     * 向指定用户推送新消息（用户在任意节点的所有连接都会收到）
      */
     public void sendMessageToUser(Long userId, Object messageData) {
-        WebSocketSession session = userSessions.get(userId);
-        if (session != null && session.isOpen()) {
-            try {
-                String json = objectMapper.writeValueAsString(messageData);
-                session.sendMessage(new TextMessage(json));
-                log.debug("Sent message to userId={}: {}", userId, json);
-            } catch (IOException e) {
-                log.error("Failed to send WebSocket message to userId={}", userId, e);
+        sendMessageToUsers(List.of(userId), messageData);
+    }
+
+    /**
+     * 向多个用户推送同一条消息，只序列化一次
+     */
+    public void sendMessageToUsers(Collection<Long> userIds, Object messageData) {
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(messageData);
+        } catch (IOException e) {
+            log.error("Failed to serialize WebSocket message for userIds={}", userIds, e);
+            return;
+        }
+        for (Long userId : userIds) {
+            broadcastBus.publish(userId, json);
+        }
+    }
+
+    /**
+     * 只推送给指定连接（用于重连补发）
+     */
+    public void sendMessageToSession(WebSocketSession session, Object messageData) {
+        try {
+            outboundQueues.send(session, newFrame(objectMapper.writeValueAsString(messageData)));
+        } catch (IOException e) {
+            log.error("Failed to serialize WebSocket message for sessionId={}", session.getId(), e);
+        }
+    }
+
+    @Override
+    public List<String> getSubProtocols() {
+        return List.of(CBOR_PROTOCOL, JSON_PROTOCOL);
+    }
+
+    /**
+     * 推送给该用户在本节点的所有连接（放入各连接的发送队列，不阻塞调用方）
+     */
+    private void deliverToLocalSessions(Long userId, String json) {
+        OutboundFrame frame = null;
+        for (WebSocketSession session : sessionRegistry.sessionsOf(userId)) {
+            if (session.isOpen()) {
+                if (frame == null) {
+                    frame = frameFor(json);
+                }
+                outboundQueues.send(session, frame);
+            }
+        }
+    }
+
+    private OutboundFrame frameFor(String json) {
+        OutboundFrame frame = lastFrame;
+        // 按引用比较：sendMessageToUsers 发布给各用户的是同一个字符串
+        if (frame == null || frame.json() != json) {
+            frame = newFrame(json);
+            lastFrame = frame;
+        }
+        return frame;
+    }
+
+    /**
+     * 构建帧时按消息类型标记可丢弃的输入状态帧
+     * 经过推送总线的只有序列化后的字符串，按字段名读取顶层 type，不依赖字段顺序
+     */
+    private OutboundFrame newFrame(String json) {
+        String type = messageType(json);
+        return new OutboundFrame(json, "TYPING".equals(type) || "STOP_TYPING".equals(type), this::encodeCbor);
+    }
+
+    private String messageType(String json) {
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
             }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("type".equals(field)) {
+                    return value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private byte[] encodeCbor(String json) {
+        try {
+            return cborMapper.writeValueAsBytes(objectMapper.readTree(json));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -111,9 +308,7 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                 String query = uri.getQuery();
                 if (query != null && query.contains("token=")) {
                     String token = query.split("token=")[1].split("&")[0];
-                    if (jwtTokenProvider.validateToken(token)) {
-                        return jwtTokenProvider.getUserIdFromToken(token);
-                    }
+                    return jwtTokenProvider.getUserIdFromToken(token);
                 }
             }
         } catch (Exception e) {
@@ -122,11 +317,28 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         return null;
     }
     
+    private Long extractSinceFromSession(WebSocketSession session) {
+        URI uri = session.getUri();
+        String query = uri != null ? uri.getQuery() : null;
+        if (query == null) {
+            return null;
+        }
+        for (String param : query.split("&")) {
+            if (param.startsWith("since=")) {
+                try {
+                    return Long.parseLong(param.substring("since=".length()));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
-     * 检查用户是否在线
+     * 检查用户是否在本节点在线
      */
     public boolean isUserOnline(Long userId) {
-        WebSocketSession session = userSessions.get(userId);
-        return session != null && session.isOpen();
+        return sessionRegistry.hasOpenSession(userId);
     }
 }
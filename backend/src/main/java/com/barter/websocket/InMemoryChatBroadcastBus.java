@@ -0,0 +1,40 @@
+package com.barter.websocket;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 单节点推送总线，直接交给本节点的订阅者
+ */
+@Component
+@ConditionalOnProperty(name = "chat.broadcast.type", havingValue = "memory", matchIfMissing = true)
+public class InMemoryChatBroadcastBus implements ChatBroadcastBus {
+
+    private final List<BiConsumer<Long, String>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(Long userId, String payload) {
+        for (BiConsumer<Long, String> listener : listeners) {
+            listener.accept(userId, payload);
+        }
+    }
+
+    @Override
+    public void subscribe(BiConsumer<Long, String> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void publishUserEvicted(Long userId) {
+        // 单节点没有其他节点需要通知
+    }
+
+    @Override
+    public void subscribeUserEvicted(Consumer<Long> listener) {
+    }
+}
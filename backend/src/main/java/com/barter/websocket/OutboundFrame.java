@@ -0,0 +1,66 @@
+package com.barter.websocket;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.function.Function;
+
+/**
+ * 一次推送对应的帧，序列化结果在所有目标连接间共用
+ * 二进制编码只在有连接协商了二进制时才生成，且只生成一次
+ */
+public final class OutboundFrame {
+
+    // 心跳 ping 帧
+    public static final OutboundFrame PING = new OutboundFrame(null, true, null);
+
+    private final String json;
+    private final boolean transientFrame;
+    private final TextMessage textMessage;
+    private final Function<String, byte[]> binaryEncoder;
+    private volatile byte[] binary;
+
+    /**
+     * @param transientFrame 是否为可丢弃的帧（输入状态），由构建方按消息类型给出
+     */
+    public OutboundFrame(String json, boolean transientFrame, Function<String, byte[]> binaryEncoder) {
+        this.json = json;
+        this.transientFrame = transientFrame;
+        this.textMessage = json != null ? new TextMessage(json) : null;
+        this.binaryEncoder = binaryEncoder;
+    }
+
+    public String json() {
+        return json;
+    }
+
+    /**
+     * 按连接协商的编码取要发送的消息
+     */
+    public org.springframework.web.socket.WebSocketMessage<?> messageFor(boolean binary) {
+        if (this == PING) {
+            return new PingMessage();
+        }
+        return binary ? binaryMessage() : textMessage;
+    }
+
+    /**
+     * 每次返回新的 BinaryMessage（发送时会移动其 ByteBuffer 的位置），底层字节数组共用
+     */
+    private BinaryMessage binaryMessage() {
+        byte[] bytes = binary;
+        if (bytes == null) {
+            bytes = binaryEncoder.apply(json);
+            binary = bytes;
+        }
+        return new BinaryMessage(bytes);
+    }
+
+    /**
+     * 输入状态帧和 ping，队列满时可以丢弃
+     */
+    public boolean isTransient() {
+        return transientFrame;
+    }
+}
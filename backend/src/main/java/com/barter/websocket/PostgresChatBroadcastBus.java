@@ -0,0 +1,211 @@
+package com.barter.websocket;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 基于 PostgreSQL LISTEN/NOTIFY 的多节点推送总线
+ * 本节点的推送直接投递，同时 NOTIFY 给其他节点；监听使用独立连接（不占用连接池），断开后自动重连
+ * 用户缓存清除通知使用单独的频道
+ * 注意：在事务中发布时其他节点要等事务提交后才会收到
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "chat.broadcast.type", havingValue = "postgres")
+public class PostgresChatBroadcastBus implements ChatBroadcastBus {
+
+    // NOTIFY 负载上限为 8000 字节，留出节点 ID 和用户 ID 的空间
+    private static final int MAX_PAYLOAD_BYTES = 7900;
+    private static final int POLL_TIMEOUT_MS = 1000;
+    private static final long RECONNECT_DELAY_MS = 5000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.datasource.url}")
+    private String url;
+
+    @Value("${spring.datasource.username}")
+    private String username;
+
+    @Value("${spring.datasource.password}")
+    private String password;
+
+    @Value("${chat.broadcast.channel:chat_broadcast}")
+    private String channel;
+
+    @Value("${chat.broadcast.user-evict-channel:user_cache_evict}")
+    private String userEvictChannel;
+
+    // 用于过滤本节点自己发出的通知
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final List<BiConsumer<Long, String>> listeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<Long>> userEvictedListeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running = true;
+    private volatile Connection listenConnection;
+    private Thread listenerThread;
+
+    @PostConstruct
+    public void start() {
+        listenerThread = new Thread(this::listenLoop, "chat-broadcast-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        closeQuietly(listenConnection);
+        listenerThread.interrupt();
+    }
+
+    @Override
+    public void publish(Long userId, String payload) {
+        deliver(userId, payload);
+
+        String message = nodeId + ":" + userId + ":" + payload;
+        if (message.getBytes(StandardCharsets.UTF_8).length > MAX_PAYLOAD_BYTES) {
+            log.warn("Broadcast payload too large for NOTIFY, delivered locally only: userId={}", userId);
+            return;
+        }
+        try {
+            jdbcTemplate.query("SELECT pg_notify(?, ?)", rs -> null, channel, message);
+        } catch (Exception e) {
+            log.error("Failed to publish broadcast: userId={}", userId, e);
+        }
+    }
+
+    @Override
+    public void subscribe(BiConsumer<Long, String> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void publishUserEvicted(Long userId) {
+        try {
+            jdbcTemplate.query("SELECT pg_notify(?, ?)", rs -> null, userEvictChannel, nodeId + ":" + userId);
+        } catch (Exception e) {
+            log.error("Failed to publish user cache eviction: userId={}", userId, e);
+        }
+    }
+
+    @Override
+    public void subscribeUserEvicted(Consumer<Long> listener) {
+        userEvictedListeners.add(listener);
+    }
+
+    private void listenLoop() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(url, username, password)) {
+                listenConnection = connection;
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                    statement.execute("LISTEN " + userEvictChannel);
+                }
+                log.info("Chat broadcast listening on channels {}, {}", channel, userEvictChannel);
+
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        if (userEvictChannel.equals(notification.getName())) {
+                            handleUserEvicted(notification.getParameter());
+                        } else {
+                            handleNotification(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    break;
+                }
+                log.error("Chat broadcast listener failed, reconnecting in {} ms", RECONNECT_DELAY_MS, e);
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    // 格式：nodeId:userId:payload
+    private void handleNotification(String message) {
+        int first = message.indexOf(':');
+        int second = message.indexOf(':', first + 1);
+        if (first < 0 || second < 0) {
+            return;
+        }
+        if (nodeId.equals(message.substring(0, first))) {
+            return;
+        }
+        try {
+            Long userId = Long.parseLong(message.substring(first + 1, second));
+            deliver(userId, message.substring(second + 1));
+        } catch (NumberFormatException e) {
+            log.warn("Malformed broadcast notification ignored");
+        }
+    }
+
+    // 格式：nodeId:userId
+    private void handleUserEvicted(String message) {
+        int separator = message.indexOf(':');
+        if (separator < 0 || nodeId.equals(message.substring(0, separator))) {
+            return;
+        }
+        try {
+            Long userId = Long.parseLong(message.substring(separator + 1));
+            for (Consumer<Long> listener : userEvictedListeners) {
+                listener.accept(userId);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Malformed user eviction notification ignored");
+        }
+    }
+
+    private void deliver(Long userId, String payload) {
+        for (BiConsumer<Long, String> listener : listeners) {
+            try {
+                listener.accept(userId, payload);
+            } catch (Exception e) {
+                log.error("Broadcast listener failed: userId={}", userId, e);
+            }
+        }
+    }
+
+    private void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug("Failed to close broadcast connection", e);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.barter.websocket;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 每个 WebSocket 连接一个有界发送队列，由写线程池异步发送
+ * 调用方只负责入队，不会被慢客户端阻塞；同一连接同一时间只有一个写线程在发送
+ * 队列满时按 chat.ws.outbound.overflow-policy 处理
+ * 单次发送超过 chat.ws.outbound.send-time-limit-ms 的连接视为慢客户端并断开，避免占住共享的写线程
+ */
+@Slf4j
+@Component
+public class SessionOutboundQueues {
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+        DROP_TYPING_FIRST,   // 先丢弃输入状态帧，没有可丢的再断开连接
+        DROP_OLDEST,         // 丢弃最早的一帧
+        CLOSE_SLOW_CONSUMER  // 直接断开连接，客户端重连后重新拉取
+    }
+
+    // 每次最多连续发送的帧数，之后让出写线程给其他连接
+    private static final int DRAIN_BATCH_SIZE = 64;
+
+    // Tomcat 阻塞发送的超时时间（会话属性，单位毫秒）
+    private static final String BLOCKING_SEND_TIMEOUT_PROPERTY = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    @Value("${chat.ws.outbound.queue-capacity:256}")
+    private int capacity;
+
+    @Value("${chat.ws.outbound.overflow-policy:DROP_TYPING_FIRST}")
+    private OverflowPolicy policy;
+
+    @Value("${chat.ws.outbound.writer-threads:4}")
+    private int writerThreads;
+
+    @Value("${chat.ws.outbound.send-time-limit-ms:10000}")
+    private long sendTimeLimitMs;
+
+    private ThreadPoolExecutor writer;
+
+    // 检查发送超时的连接；不使用写线程，写线程可能全部阻塞在发送上
+    private ScheduledExecutorService sendWatchdog;
+
+    // sessionId -> 发送队列
+    private final Map<String, OutboundQueue> queues = new ConcurrentHashMap<>();
+
+    private final LongAdder sentFrames = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder closedSessions = new LongAdder();
+    private final LongAdder sendTimeouts = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        // 每个连接同一时间最多排一个发送任务，任务队列长度不超过连接数
+        writer = new ThreadPoolExecutor(writerThreads, writerThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "ws-writer-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        sendWatchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-send-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        long checkIntervalMs = Math.max(100, sendTimeLimitMs / 4);
+        sendWatchdog.scheduleWithFixedDelay(this::closeTimedOutSends, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sendWatchdog.shutdownNow();
+        writer.shutdownNow();
+    }
+
+    /**
+     * @param binary 该连接协商了二进制编码
+     */
+    public void open(WebSocketSession session, boolean binary) {
+        // 同时限制容器的阻塞发送时间，连接关闭前写线程也不会一直阻塞
+        if (session instanceof NativeWebSocketSession nativeSession) {
+            jakarta.websocket.Session wsSession = nativeSession.getNativeSession(jakarta.websocket.Session.class);
+            if (wsSession != null) {
+                wsSession.getUserProperties().put(BLOCKING_SEND_TIMEOUT_PROPERTY, sendTimeLimitMs);
+            }
+        }
+        queues.put(session.getId(), new OutboundQueue(session, binary));
+    }
+
+    public void close(WebSocketSession session) {
+        OutboundQueue queue = queues.remove(session.getId());
+        if (queue != null) {
+            queue.discard();
+        }
+    }
+
+    /**
+     * 入队发送，立即返回
+     */
+    public void send(WebSocketSession session, OutboundFrame frame) {
+        OutboundQueue queue = queues.get(session.getId());
+        if (queue != null) {
+            queue.offer(frame);
+        }
+    }
+
+    /**
+     * 发送队列统计
+     */
+    public Stats stats() {
+        int queued = 0;
+        int maxDepth = 0;
+        for (OutboundQueue queue : queues.values()) {
+            int depth = queue.depth();
+            queued += depth;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        return new Stats(queues.size(), queued, maxDepth, capacity, policy,
+                sentFrames.sum(), droppedFrames.sum(), closedSessions.sum(), sendTimeouts.sum());
+    }
+
+    /**
+     * 在写线程上关闭连接（对方不响应时关闭可能阻塞）
+     */
+    public void closeAsync(WebSocketSession session, CloseStatus status) {
+        writer.execute(() -> {
+            try {
+                session.close(status);
+            } catch (IOException e) {
+                log.debug("Failed to close WebSocket session {}", session.getId(), e);
+            }
+        });
+    }
+
+    /**
+     * 断开单次发送超时的连接，在看门狗线程上直接关闭（写线程可能都被占住）
+     */
+    private void closeTimedOutSends() {
+        long startedBefore = System.currentTimeMillis() - sendTimeLimitMs;
+        for (OutboundQueue queue : queues.values()) {
+            long startedAt = queue.sendStartedAt;
+            if (startedAt == 0 || startedAt >= startedBefore || !queue.discard()) {
+                continue;
+            }
+            sendTimeouts.increment();
+            log.warn("Closing WebSocket session after send exceeded {} ms: sessionId={}", sendTimeLimitMs, queue.session.getId());
+            try {
+                queue.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException | RuntimeException e) {
+                log.debug("Failed to close WebSocket session {}", queue.session.getId(), e);
+            }
+        }
+    }
+
+    private void closeSlowConsumer(WebSocketSession session) {
+        closedSessions.increment();
+        log.warn("Closing slow WebSocket consumer: sessionId={}", session.getId());
+        closeAsync(session, CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    private final class OutboundQueue implements Runnable {
+
+        private final WebSocketSession session;
+        private final boolean binary;
+        private final Deque<OutboundFrame> frames = new ArrayDeque<>();
+        // 正在进行的发送开始的时间，没有发送时为 0
+        private volatile long sendStartedAt;
+        // 以下字段由 this 保护
+        private boolean scheduled;
+        private boolean closed;
+
+        OutboundQueue(WebSocketSession session, boolean binary) {
+            this.session = session;
+            this.binary = binary;
+        }
+
+        void offer(OutboundFrame frame) {
+            boolean schedule;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (frames.size() >= capacity && !makeRoom(frame)) {
+                    return;
+                }
+                frames.addLast(frame);
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            if (schedule) {
+                writer.execute(this);
+            }
+        }
+
+        /**
+         * 队列已满时按策略腾出空间，返回 false 表示新帧不入队
+         */
+        private boolean makeRoom(OutboundFrame frame) {
+            switch (policy) {
+                case DROP_OLDEST -> {
+                    frames.pollFirst();
+                    droppedFrames.increment();
+                    return true;
+                }
+                case DROP_TYPING_FIRST -> {
+                    if (frame.isTransient()) {
+                        droppedFrames.increment();
+                        return false;
+                    }
+                    for (Iterator<OutboundFrame> it = frames.iterator(); it.hasNext(); ) {
+                        if (it.next().isTransient()) {
+                            it.remove();
+                            droppedFrames.increment();
+                            return true;
+                        }
+                    }
+                }
+                default -> {
+                }
+            }
+            closed = true;
+            droppedFrames.add(frames.size() + 1);
+            frames.clear();
+            closeSlowConsumer(session);
+            return false;
+        }
+
+        /**
+         * @return 之前是否未关闭
+         */
+        synchronized boolean discard() {
+            boolean wasOpen = !closed;
+            closed = true;
+            frames.clear();
+            return wasOpen;
+        }
+
+        // 已在写线程上，直接关闭
+        private void closeQuietly(CloseStatus status) {
+            try {
+                session.close(status);
+            } catch (IOException | RuntimeException e) {
+                log.debug("Failed to close WebSocket session {}", session.getId(), e);
+            }
+        }
+
+        synchronized int depth() {
+            return frames.size();
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < DRAIN_BATCH_SIZE; i++) {
+                OutboundFrame frame;
+                synchronized (this) {
+                    frame = closed ? null : frames.pollFirst();
+                    if (frame == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    sendStartedAt = System.currentTimeMillis();
+                    session.sendMessage(frame.messageFor(binary));
+                    sentFrames.increment();
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Failed to send WebSocket message: sessionId={}", session.getId(), e);
+                    boolean wasOpen = discard();
+                    synchronized (this) {
+                        scheduled = false;
+                    }
+                    // 关闭连接，由 afterConnectionClosed 从会话表和发送队列中移除，之后的推送不再投递到这里
+                    if (wasOpen) {
+                        closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+                    }
+                    return;
+                } finally {
+                    sendStartedAt = 0;
+                }
+            }
+            // 还有剩余则重新排队，避免一个连接长期占用写线程
+            writer.execute(this);
+        }
+    }
+
+    public record Stats(int sessions, int queuedFrames, int maxQueueDepth, int queueCapacity,
+                        OverflowPolicy overflowPolicy, long sentFrames, long droppedFrames, long closedSlowConsumers,
+                        long sendTimeouts) {}
+}
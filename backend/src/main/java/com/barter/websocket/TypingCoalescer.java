@@ -0,0 +1,50 @@
+package com.barter.websocket;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 输入状态合并限流（按发送者 + 会话）
+ * 状态变化立即转发；持续输入时在 chat.ws.typing.min-interval-ms 内只转发一次，重复的停止输入不再转发
+ */
+@Component
+public class TypingCoalescer {
+
+    // 超过该时间没有变化的状态会被清理
+    private static final long STATE_TTL_MS = 60_000;
+
+    @Value("${chat.ws.typing.min-interval-ms:3000}")
+    private long minIntervalMs;
+
+    // "senderId:conversationId" -> 最后转发的状态
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+
+    /**
+     * 是否需要转发这次输入状态
+     */
+    public boolean shouldForward(Long senderId, Long conversationId, boolean typing) {
+        long now = System.currentTimeMillis();
+        boolean[] forward = {false};
+        states.compute(senderId + ":" + conversationId, (key, state) -> {
+            if (typing) {
+                forward[0] = state == null || !state.typing() || now - state.sentAt() >= minIntervalMs;
+            } else {
+                forward[0] = state == null || state.typing();
+            }
+            return forward[0] ? new State(typing, now) : state;
+        });
+        return forward[0];
+    }
+
+    @Scheduled(fixedDelay = STATE_TTL_MS)
+    public void evictStale() {
+        long expireBefore = System.currentTimeMillis() - STATE_TTL_MS;
+        states.values().removeIf(state -> state.sentAt() < expireBefore);
+    }
+
+    private record State(boolean typing, long sentAt) {}
+}
@@ -0,0 +1,119 @@
+package com.barter.websocket;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本节点的 WebSocket 连接登记（一个用户可以有多个设备同时在线）
+ * 用户在本节点的第一个连接建立、最后一个连接断开时通知 PresenceListener
+ */
+@Component
+public class UserSessionRegistry {
+
+    public static final String USER_ID_ATTRIBUTE = "userId";
+    public static final String LAST_ACTIVE_ATTRIBUTE = "lastActiveAt";
+
+    /**
+     * 用户在本节点上线/下线
+     */
+    public interface PresenceListener {
+        void onPresenceChanged(Long userId, boolean online);
+    }
+
+    // userId -> 该用户在本节点的所有连接
+    private final Map<Long, Set<WebSocketSession>> userSessions = new ConcurrentHashMap<>();
+
+    private volatile PresenceListener presenceListener;
+
+    public void setPresenceListener(PresenceListener presenceListener) {
+        this.presenceListener = presenceListener;
+    }
+
+    public void register(Long userId, WebSocketSession session) {
+        session.getAttributes().put(USER_ID_ATTRIBUTE, userId);
+        session.getAttributes().put(LAST_ACTIVE_ATTRIBUTE, new AtomicLong(System.currentTimeMillis()));
+        boolean[] first = {false};
+        userSessions.compute(userId, (id, sessions) -> {
+            Set<WebSocketSession> set = sessions != null ? sessions : ConcurrentHashMap.newKeySet();
+            first[0] = set.isEmpty();
+            set.add(session);
+            return set;
+        });
+        if (first[0]) {
+            notifyPresence(userId, true);
+        }
+    }
+
+    /**
+     * 移除连接，返回该连接所属的用户 ID（未登记过返回 null），可重复调用
+     */
+    public Long unregister(WebSocketSession session) {
+        Long userId = userIdOf(session);
+        if (userId != null) {
+            boolean[] last = {false};
+            userSessions.computeIfPresent(userId, (id, sessions) -> {
+                last[0] = sessions.remove(session) && sessions.isEmpty();
+                return sessions.isEmpty() ? null : sessions;
+            });
+            if (last[0]) {
+                notifyPresence(userId, false);
+            }
+        }
+        return userId;
+    }
+
+    public Long userIdOf(WebSocketSession session) {
+        return (Long) session.getAttributes().get(USER_ID_ATTRIBUTE);
+    }
+
+    /**
+     * 记录连接活跃（收到消息或 pong）
+     */
+    public void touch(WebSocketSession session) {
+        AtomicLong lastActive = (AtomicLong) session.getAttributes().get(LAST_ACTIVE_ATTRIBUTE);
+        if (lastActive != null) {
+            lastActive.set(System.currentTimeMillis());
+        }
+    }
+
+    public long lastActiveAt(WebSocketSession session) {
+        AtomicLong lastActive = (AtomicLong) session.getAttributes().get(LAST_ACTIVE_ATTRIBUTE);
+        return lastActive != null ? lastActive.get() : 0;
+    }
+
+    public Set<WebSocketSession> sessionsOf(Long userId) {
+        Set<WebSocketSession> sessions = userSessions.get(userId);
+        return sessions != null ? sessions : Set.of();
+    }
+
+    public List<WebSocketSession> allSessions() {
+        List<WebSocketSession> all = new ArrayList<>();
+        userSessions.values().forEach(all::addAll);
+        return all;
+    }
+
+    /**
+     * 在本节点有连接的用户
+     */
+    public Set<Long> onlineUserIds() {
+        return Set.copyOf(userSessions.keySet());
+    }
+
+    public boolean hasOpenSession(Long userId) {
+        return sessionsOf(userId).stream().anyMatch(WebSocketSession::isOpen);
+    }
+
+    private void notifyPresence(Long userId, boolean online) {
+        PresenceListener listener = presenceListener;
+        if (listener != null) {
+            listener.onPresenceChanged(userId, online);
+        }
+    }
+}
@@ -11,11 +11,15 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class WebSocketMessage {
     
-    // 消息类型: NEW_MESSAGE, MESSAGE_READ, TYPING, STOP_TYPING
+    // 消息类型: NEW_MESSAGE, MESSAGE_READ, TYPING, STOP_TYPING, ITEM_IMAGES_READY, PRESENCE, RESUMED
     private String type;
     private Long conversationId;
+    private Long itemId;
     private MessagePayload message;
     private TypingPayload typing;
+    private PresencePayload presence;
+    private ReadPayload read;
+    private ResumePayload resume;
     
     @Data
     @Builder
@@ -40,4 +44,36 @@ public class WebSocketMessage {
         private Long userId;
         private String nickname;
     }
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class PresencePayload {
+        private Long userId;
+        private Boolean online;
+        private String lastSeenAt;
+    }
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ReadPayload {
+        private Long userId;
+        private Long lastReadMessageId;
+    }
+
+    /**
+     * 断线重连补发完成；complete 为 false 表示遗漏太多未全部补发，客户端需要重新拉取会话
+     */
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ResumePayload {
+        private Long lastMessageId;
+        private Integer replayed;
+        private Boolean complete;
+    }
 }
@@ -0,0 +1,96 @@
+package com.barter.service;
+
+import com.barter.dto.ItemDto;
+import com.barter.entity.ImageBlob;
+import com.barter.entity.ItemImage;
+import com.barter.entity.User;
+import com.barter.repository.ImageBlobRepository;
+import com.barter.repository.ItemImageRepository;
+import com.barter.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 替换物品图片后旧图片的引用归零，定时清理删除其文件和记录；没有 Docker 时跳过
+ */
+@TestPropertySource(properties = {
+        "upload.path=target/test-uploads/item-image-release",
+        // 负的宽限期让刚释放的文件立即可被清理
+        "image.blob.gc-grace-minutes=-1"
+})
+class ItemImageReleaseTest extends PostgresIntegrationTest {
+
+    private static final long PROCESSING_TIMEOUT_MS = 10_000;
+
+    @Autowired
+    private ItemService itemService;
+
+    @Autowired
+    private ImageStorageService imageStorageService;
+
+    @Autowired
+    private ImageBlobRepository imageBlobRepository;
+
+    @Autowired
+    private ItemImageRepository itemImageRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Test
+    void replacedItemImageIsSwept() throws Exception {
+        User owner = userRepository.save(newUser("image-owner"));
+        ItemDto.CreateRequest request = new ItemDto.CreateRequest();
+        request.setTitle("lamp");
+
+        ItemDto.ItemResponse created = itemService.createItem(request, owner, List.of(image("old image")));
+        awaitProcessed();
+        String oldHash = hashOf(created.getImages().get(0));
+        for (int size : imageStorageService.variantSizes()) {
+            assertThat(imageStorageService.variantPath(oldHash, size)).exists();
+        }
+
+        ItemDto.ItemResponse replaced = itemService.replaceImages(created.getId(), List.of(image("new image")), owner);
+        awaitProcessed();
+        String newHash = hashOf(replaced.getImages().get(0));
+        assertThat(imageBlobRepository.findById(oldHash)).get()
+                .extracting(ImageBlob::getRefCount).isEqualTo(0);
+
+        imageStorageService.sweep();
+
+        assertThat(imageBlobRepository.findById(oldHash)).isEmpty();
+        for (int size : imageStorageService.variantSizes()) {
+            assertThat(imageStorageService.variantPath(oldHash, size)).doesNotExist();
+            assertThat(imageStorageService.variantPath(newHash, size)).exists();
+        }
+        assertThat(imageBlobRepository.findById(newHash)).get()
+                .extracting(ImageBlob::getRefCount).isEqualTo(1);
+    }
+
+    /**
+     * 等待提交后的异步处理完成
+     */
+    private void awaitProcessed() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + PROCESSING_TIMEOUT_MS;
+        while (itemImageRepository.findWithItemByStatus(ItemImage.ImageStatus.PROCESSING).size() > 0) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    // 无法解码的内容各尺寸直接保存原文件，足够验证引用和清理
+    private MockMultipartFile image(String content) {
+        return new MockMultipartFile("images", "photo.jpg", "image/jpeg", content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String hashOf(String imageUrl) {
+        return imageUrl.substring("/uploads/".length(), imageUrl.length() - ".jpg".length());
+    }
+}
@@ -0,0 +1,147 @@
+package com.barter.service;
+
+import com.barter.entity.Item;
+import com.barter.entity.ItemImage;
+import com.barter.entity.ItemWish;
+import com.barter.entity.User;
+import com.barter.repository.ItemRepository;
+import com.barter.repository.ItemWishRepository;
+import com.barter.repository.UserRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 列表页的 SQL 条数不随每页条数增加（owner 随列表查询取出，图片批量加载）
+ * 用 Hibernate Statistics 统计一次请求执行的语句数；没有 Docker 时跳过
+ */
+@TestPropertySource(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        // 避免后台定时任务在统计期间执行语句
+        "item.view-count.flush-interval-ms=3600000",
+        "chat.ws.heartbeat-interval-ms=3600000"
+})
+class ItemListQueryCountTest extends PostgresIntegrationTest {
+
+    private static final int ITEM_COUNT = 30;
+    private static final int OWNER_COUNT = 5;
+
+    @Autowired
+    private ItemService itemService;
+
+    @Autowired
+    private ItemSearchIndex itemSearchIndex;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    @Autowired
+    private ItemWishRepository itemWishRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private User viewer;
+
+    @BeforeEach
+    void setUp() {
+        // 数据只在第一个测试前写入一次
+        viewer = userRepository.findByUsername("viewer").orElse(null);
+        if (viewer != null) {
+            return;
+        }
+
+        // 管理员能看到所有物品，不受物品可见性配置影响
+        viewer = newUser("viewer");
+        viewer.setIsAdmin(true);
+        viewer = userRepository.save(viewer);
+
+        List<User> owners = new ArrayList<>();
+        for (int i = 0; i < OWNER_COUNT; i++) {
+            owners.add(userRepository.save(newUser("owner" + i)));
+        }
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            Item item = new Item();
+            item.setTitle("camera " + i);
+            item.setCategory("数码");
+            item.setOwner(owners.get(i % OWNER_COUNT));
+            item.setImages(new ArrayList<>());
+            for (int j = 0; j < 2; j++) {
+                ItemImage image = new ItemImage();
+                image.setImageUrl("/uploads/" + i + "-" + j + ".jpg");
+                image.setSortOrder(j);
+                image.setItem(item);
+                item.getImages().add(image);
+            }
+            item = itemRepository.save(item);
+
+            ItemWish wish = new ItemWish();
+            wish.setUser(viewer);
+            wish.setItem(item);
+            itemWishRepository.save(wish);
+        }
+        itemSearchIndex.rebuild();
+    }
+
+    @Test
+    void listPageStatementCountDoesNotGrowWithPageSize() {
+        long small = countStatements(() -> itemService.listItems(PageRequest.of(0, 5), viewer).getContent());
+        long large = countStatements(() -> itemService.listItems(PageRequest.of(0, 20), viewer).getContent());
+
+        // 分页查询、总数、图片批量加载、可见性配置、收藏状态
+        assertThat(large).isEqualTo(small).isLessThanOrEqualTo(5);
+    }
+
+    @Test
+    void searchPageStatementCountDoesNotGrowWithPageSize() {
+        long small = countStatements(() -> itemService.searchItems("camera", null, null, PageRequest.of(0, 5), viewer).getContent());
+        long large = countStatements(() -> itemService.searchItems("camera", null, null, PageRequest.of(0, 20), viewer).getContent());
+
+        // 按 ID 取物品、图片批量加载、可见性配置、收藏状态
+        assertThat(large).isEqualTo(small).isLessThanOrEqualTo(4);
+    }
+
+    @Test
+    void wishesPageStatementCountDoesNotGrowWithPageSize() {
+        long small = countStatements(() -> itemService.getMyWishes(viewer, PageRequest.of(0, 5)).getContent());
+        long large = countStatements(() -> itemService.getMyWishes(viewer, PageRequest.of(0, 20)).getContent());
+
+        // 分页查询、总数、图片批量加载
+        assertThat(large).isEqualTo(small).isLessThanOrEqualTo(3);
+    }
+
+    /**
+     * 在一个只读事务中执行（与 open-in-view 下的请求一样，懒加载在同一个会话中完成），返回执行的语句数
+     */
+    private long countStatements(Supplier<List<?>> page) {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+
+        statistics.clear();
+        List<?> content = transactionTemplate.execute(status -> page.get());
+        long statements = statistics.getPrepareStatementCount();
+
+        assertThat(content).isNotEmpty();
+        return statements;
+    }
+}
@@ -0,0 +1,107 @@
+package com.barter.service;
+
+import com.barter.entity.Item;
+import com.barter.repository.ItemRepository;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 搜索索引的匹配规则：英文/数字按单词前缀匹配（不再是 LIKE '%关键词%' 的子串匹配），中日韩文字按二元组匹配
+ */
+class ItemSearchIndexTest {
+
+    private final ItemRepository itemRepository = mock(ItemRepository.class);
+
+    @Test
+    void latinTermsMatchWordPrefixesOnly() {
+        ItemSearchIndex index = indexOf(item(1L, "Canon camera", null), item(2L, "bike", "camping trip"));
+
+        assertThat(search(index, "cam")).containsExactly(1L, 2L);
+        assertThat(search(index, "camera")).containsExactly(1L);
+        // 单词中间的子串不匹配
+        assertThat(search(index, "amera")).isEmpty();
+        assertThat(search(index, "anon")).isEmpty();
+    }
+
+    @Test
+    void shortPrefixMatchesEveryExpandedTerm() {
+        List<Item> items = new ArrayList<>();
+        for (long id = 1; id <= 200; id++) {
+            items.add(item(id, "c" + id + "x", null));
+        }
+        ItemSearchIndex index = indexOf(items.toArray(Item[]::new));
+
+        ItemSearchIndex.SearchResult result = index.search("c", null, null, null, 0, 500);
+        assertThat(result.total()).isEqualTo(200);
+    }
+
+    @Test
+    void cjkTermsMatchByBigrams() {
+        ItemSearchIndex index = indexOf(item(1L, "九成新手机壳", null), item(2L, "旧手机", null), item(3L, "机械键盘", null));
+
+        assertThat(search(index, "手机壳")).containsExactly(1L);
+        assertThat(search(index, "手机")).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(search(index, "机")).containsExactlyInAnyOrder(1L, 2L, 3L);
+    }
+
+    @Test
+    void concurrentUpdatesDoNotBreakSearch() throws InterruptedException {
+        ItemSearchIndex index = indexOf(item(1L, "手机", null), item(2L, "手机壳", null));
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            try {
+                while (running.get()) {
+                    index.index(item(2L, "手机壳", null));
+                    index.remove(2L);
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 20_000; i++) {
+                // 物品 2 可能在两个二元组的匹配之间被移除
+                assertThat(search(index, "手机壳")).isSubsetOf(2L);
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        assertThat(failures).isEmpty();
+    }
+
+    private ItemSearchIndex indexOf(Item... items) {
+        when(itemRepository.findBatchAfterId(anyLong(), any())).thenReturn(List.of(items), List.of());
+        ItemSearchIndex index = new ItemSearchIndex(itemRepository);
+        index.init();
+        return index;
+    }
+
+    private List<Long> search(ItemSearchIndex index, String keyword) {
+        return index.search(keyword, null, null, null, 0, 100).itemIds();
+    }
+
+    private Item item(Long id, String title, String description) {
+        Item item = new Item();
+        item.setId(id);
+        item.setTitle(title);
+        item.setDescription(description);
+        item.setStatus(Item.ItemStatus.AVAILABLE);
+        item.setCreatedAt(LocalDateTime.of(2024, 1, 1, 0, 0).plusMinutes(id));
+        return item;
+    }
+}
@@ -0,0 +1,37 @@
+package com.barter.service;
+
+import com.barter.entity.User;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.test.context.TestPropertySource;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * PostgreSQL 集成测试的公共配置和测试数据；没有 Docker 时跳过
+ * 所有测试类共用一个容器（只启动一次，进程退出时由 Testcontainers 清理），子类用 @TestPropertySource 追加配置
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@SpringBootTest
+@TestPropertySource(properties = "image.variants.backfill-on-startup=false")
+abstract class PostgresIntegrationTest {
+
+    @ServiceConnection
+    static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    static {
+        if (DockerClientFactory.instance().isDockerAvailable()) {
+            postgres.start();
+        }
+    }
+
+    static User newUser(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setEmail(username + "@example.com");
+        user.setPassword("password");
+        user.setNickname(username);
+        return user;
+    }
+}
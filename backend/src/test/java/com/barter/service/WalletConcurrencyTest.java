@@ -0,0 +1,137 @@
+package com.barter.service;
+
+import com.barter.entity.User;
+import com.barter.entity.UserWallet;
+import com.barter.repository.UserRepository;
+import com.barter.repository.UserWalletRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 多线程并发操作同一个钱包：冻结、扣除冻结（违约没收）、解冻和签到
+ * 任何时刻冻结额不超过余额，结束后流水累计与钱包余额一致；没有 Docker 时跳过
+ */
+class WalletConcurrencyTest extends PostgresIntegrationTest {
+
+    private static final int THREADS = 16;
+    private static final int ITERATIONS = 50;
+    private static final int DEPOSIT_POINTS = 7;
+    private static final BigDecimal DEPOSIT_CASH = new BigDecimal("3.50");
+
+    // 余额不足和重复签到是预期的业务失败
+    private static final Set<String> EXPECTED_FAILURES = Set.of("积分余额不足", "现金余额不足", "今天已经签到过了");
+
+    // 按流水类型还原余额：冻结/解冻只改变冻结额，没收同时减少余额和冻结额
+    private static final String LEDGER_TOTALS_SQL =
+            "SELECT COALESCE(SUM(CASE WHEN type IN ('DEPOSIT_FREEZE', 'DEPOSIT_UNFREEZE') THEN 0 ELSE COALESCE(points_change, 0) END), 0) AS points, " +
+            "COALESCE(SUM(CASE WHEN type IN ('DEPOSIT_FREEZE', 'DEPOSIT_UNFREEZE') THEN -COALESCE(points_change, 0) " +
+            "WHEN type = 'DEPOSIT_FORFEIT' THEN COALESCE(points_change, 0) ELSE 0 END), 0) AS frozen_points, " +
+            "COALESCE(SUM(CASE WHEN type IN ('DEPOSIT_FREEZE', 'DEPOSIT_UNFREEZE') THEN 0 ELSE COALESCE(balance_change, 0) END), 0) AS balance, " +
+            "COALESCE(SUM(CASE WHEN type IN ('DEPOSIT_FREEZE', 'DEPOSIT_UNFREEZE') THEN -COALESCE(balance_change, 0) " +
+            "WHEN type = 'DEPOSIT_FORFEIT' THEN COALESCE(balance_change, 0) ELSE 0 END), 0) AS frozen_balance " +
+            "FROM wallet_transactions WHERE user_id = ?";
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserWalletRepository walletRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void concurrentOperationsKeepWalletConsistentWithLedger() throws Exception {
+        User user = userRepository.save(newUser("wallet-owner"));
+        User receiver = userRepository.save(newUser("wallet-receiver"));
+        walletService.recharge(user, new BigDecimal("5000.00"));
+        walletService.addReferralReward(user, receiver, 10000);
+
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        AtomicInteger signIns = new AtomicInteger();
+        AtomicInteger overFrozen = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        try {
+                            runOnce(user, receiver, signIns);
+                        } catch (RuntimeException e) {
+                            if (!EXPECTED_FAILURES.contains(e.getMessage())) {
+                                failures.add(e);
+                            }
+                        }
+                        UserWallet wallet = walletRepository.findByUserId(user.getId()).orElseThrow();
+                        if (wallet.getFrozenPoints() > wallet.getPoints()
+                                || wallet.getFrozenBalance().compareTo(wallet.getBalance()) > 0) {
+                            overFrozen.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.MINUTES)).isTrue();
+
+        assertThat(failures).isEmpty();
+        assertThat(overFrozen.get()).isZero();
+        // 同一天只能签到成功一次
+        assertThat(signIns.get()).isEqualTo(1);
+        assertLedgerMatchesWallet(user);
+        assertLedgerMatchesWallet(receiver);
+    }
+
+    /**
+     * 一次随机操作：签到，或冻结保证金后解冻/没收
+     */
+    private void runOnce(User user, User receiver, AtomicInteger signIns) {
+        int action = ThreadLocalRandom.current().nextInt(10);
+        if (action == 0) {
+            walletService.signIn(user);
+            signIns.incrementAndGet();
+            return;
+        }
+        walletService.freezeDeposit(user, DEPOSIT_POINTS, DEPOSIT_CASH, null);
+        if (action % 2 == 0) {
+            walletService.forfeitDeposit(user, receiver, DEPOSIT_POINTS, DEPOSIT_CASH, null);
+        } else {
+            walletService.unfreezeDeposit(user, DEPOSIT_POINTS, DEPOSIT_CASH, null);
+        }
+    }
+
+    private void assertLedgerMatchesWallet(User user) {
+        UserWallet wallet = walletRepository.findByUserId(user.getId()).orElseThrow();
+        Map<String, Object> totals = jdbcTemplate.queryForMap(LEDGER_TOTALS_SQL, user.getId());
+
+        assertThat(((Number) totals.get("points")).intValue()).isEqualTo(wallet.getPoints());
+        assertThat(((Number) totals.get("frozen_points")).intValue()).isEqualTo(wallet.getFrozenPoints());
+        assertThat((BigDecimal) totals.get("balance")).isEqualByComparingTo(wallet.getBalance());
+        assertThat((BigDecimal) totals.get("frozen_balance")).isEqualByComparingTo(wallet.getFrozenBalance());
+        assertThat(wallet.getFrozenPoints()).isBetween(0, wallet.getPoints());
+        assertThat(wallet.getFrozenBalance()).isBetween(BigDecimal.ZERO, wallet.getBalance());
+    }
+}